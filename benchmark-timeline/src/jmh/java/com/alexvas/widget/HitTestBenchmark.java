@@ -0,0 +1,91 @@
+package com.alexvas.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record lookups done by TimelineView on tap (onSingleTapUp()) and on next/previous record
+ * navigation (getNextMajorRecord(), getPrevMajorRecord()).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HitTestBenchmark {
+
+    private static final int POSITIONS = 1024;
+    private static final int WIDTH = 1080;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"MIN_1", "MIN_5", "MIN_15", "MIN_30", "HOUR_1", "HOUR_6", "HOUR_12", "DAY_1", "DAY_7", "DAY_30"})
+    public String interval;
+
+    private RecordLayer _major1;
+    private RecordLayer _major2;
+    private long _intervalMsec;
+    // Selected time and tap x position of every lookup
+    private final long[] _selectedMsecs = new long[POSITIONS];
+    private final int[] _tapX = new int[POSITIONS];
+    private int _position = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        _major1 = SyntheticRecords.createLayer(records, 1, false);
+        _major2 = SyntheticRecords.createLayer(Math.max(1, records / 10), 2, false);
+        _intervalMsec = SyntheticRecords.getInterval(interval);
+        long minMsec = _major1.store.getTimestampMsec(_major1.store.size() - 1);
+        long range = Math.max(1, SyntheticRecords.NOW_MSEC - minMsec);
+        Random random = new Random(3);
+        for (int i = 0; i < POSITIONS; i++) {
+            _selectedMsecs[i] = minMsec + Math.floorMod(random.nextLong(), range);
+            _tapX[i] = random.nextInt(WIDTH);
+        }
+    }
+
+    /**
+     * Same lookup as in onSingleTapUp(): major2 record under the tap, otherwise major1 record
+     * under the tap or the next one.
+     */
+    @Benchmark
+    public long tap() {
+        int position = nextPosition();
+        int offsetInPixels = (int) (_tapX[position] - WIDTH / 2f);
+        float msecInPixels = _intervalMsec / (float) WIDTH;
+        long newSelectedMsec = _selectedMsecs[position] + (long) (msecInPixels * offsetInPixels);
+        int index = _major2.index.getContainingIndex(newSelectedMsec, true);
+        if (index >= 0)
+            return _major2.store.getTimestampMsec(index);
+        index = _major1.index.getContainingOrNextIndex(newSelectedMsec);
+        return index >= 0 ? _major1.store.getTimestampMsec(index) : newSelectedMsec;
+    }
+
+    @Benchmark
+    public Object nextRecord() {
+        int index = _major1.index.getNextIndex(_selectedMsecs[nextPosition()] + 1000);
+        return index >= 0 ? _major1.store.getRecord(index) : null;
+    }
+
+    @Benchmark
+    public Object prevRecord() {
+        int index = _major1.index.getPrevIndex(_selectedMsecs[nextPosition()] - 30000);
+        return index >= 0 ? _major1.store.getRecord(index) : null;
+    }
+
+    private int nextPosition() {
+        int position = _position;
+        _position = (position + 1) & (POSITIONS - 1);
+        return position;
+    }
+
+}
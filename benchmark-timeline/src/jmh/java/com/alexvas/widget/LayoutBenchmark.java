@@ -0,0 +1,113 @@
+package com.alexvas.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Projection of records to rectangles and culling of invisible ones done by TimelineView.update()
+ * for every frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayoutBenchmark {
+
+    private static final int POSITIONS = 1024;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"MIN_1", "MIN_5", "MIN_15", "MIN_30", "HOUR_1", "HOUR_6", "HOUR_12", "DAY_1", "DAY_7", "DAY_30"})
+    public String interval;
+
+    // "scan" - linear culling, "search" - binary search culling, "lod" - search with level of detail
+    @Param({"scan", "search", "lod"})
+    public String culling;
+
+    private final TimelineLayout _layout = new TimelineLayout();
+    private final long[] _positions = new long[POSITIONS];
+    private int _position = 0;
+    private long _minSelectedMsec;
+    private long _maxSelectedMsec;
+    private long _panStepMsec;
+    // Positions of major layer tracks in layout output
+    private int _major1Position;
+    private int _major2Position;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        boolean lod = "lod".equals(culling);
+        RecordLayer major1 = SyntheticRecords.createLayer(records, 1, lod);
+        RecordLayer major2 = SyntheticRecords.createLayer(Math.max(1, records / 10), 2, lod);
+        long intervalMsec = SyntheticRecords.getInterval(interval);
+
+        TimelineTrack[] tracks = TimelineTrack.createLayerTracks(major1, major2, RecordLayer.EMPTY);
+        for (int i = 0; i < tracks.length; i++) {
+            if (tracks[i].id == TimelineView.LAYER_MAJOR1) {
+                tracks[i] = tracks[i].withBandInset(20);
+                _major1Position = i;
+            } else if (tracks[i].id == TimelineView.LAYER_MAJOR2) {
+                tracks[i] = tracks[i].withBandInset(40);
+                _major2Position = i;
+            }
+        }
+        _layout.tracks = tracks;
+        _layout.intervalMsec = intervalMsec;
+        _layout.nowMsec = SyntheticRecords.NOW_MSEC;
+        _layout.width = 1080;
+        _layout.height = 200;
+        _layout.lineHalfWidth = 3;
+        _layout.binarySearchCulling = !"scan".equals(culling);
+        _layout.levelOfDetail = lod;
+        _layout.coveragePyramid = lod;
+
+        // Keep selected time within records, so every frame has something to project
+        _minSelectedMsec = major1.store.getTimestampMsec(major1.store.size() - 1);
+        _maxSelectedMsec = SyntheticRecords.NOW_MSEC;
+        _panStepMsec = Math.max(1, intervalMsec / 200);
+        Random random = new Random(3);
+        long range = Math.max(1, _maxSelectedMsec - _minSelectedMsec);
+        for (int i = 0; i < POSITIONS; i++)
+            _positions[i] = _minSelectedMsec + Math.floorMod(random.nextLong(), range);
+        _layout.selectedMsec = (_minSelectedMsec + _maxSelectedMsec) / 2;
+        _layout.layout();
+    }
+
+    /**
+     * Dragging timeline by a few pixels per frame.
+     */
+    @Benchmark
+    public void pan(Blackhole blackhole) {
+        long selectedMsec = _layout.selectedMsec - _panStepMsec;
+        if (selectedMsec < _minSelectedMsec)
+            selectedMsec = _maxSelectedMsec;
+        _layout.selectedMsec = selectedMsec;
+        _layout.layout();
+        blackhole.consume(_layout.trackRects[_major1Position].rects.size());
+        blackhole.consume(_layout.trackRects[_major2Position].selected);
+    }
+
+    /**
+     * Jumping to an arbitrary time, e.g. selecting a date or the next record far away.
+     */
+    @Benchmark
+    public void jump(Blackhole blackhole) {
+        _layout.selectedMsec = _positions[_position];
+        _position = (_position + 1) & (POSITIONS - 1);
+        _layout.layout();
+        blackhole.consume(_layout.trackRects[_major1Position].rects.size());
+        blackhole.consume(_layout.trackRects[_major2Position].selected);
+    }
+
+}
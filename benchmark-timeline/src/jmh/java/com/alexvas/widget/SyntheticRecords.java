@@ -0,0 +1,58 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible records resembling camera recordings: motion events from a few seconds
+ * to a few minutes long separated by gaps of random length. Records are sorted in descending order.
+ */
+final class SyntheticRecords {
+
+    // Newest record ends here, 2024-01-01 00:00:00 UTC
+    static final long NOW_MSEC = 1704067200000L;
+
+    private static final int[] COLORS = { 0xFF2196F3, 0xFFF44336, 0xFF4CAF50, 0xFFFF9800 };
+
+    private SyntheticRecords() {
+    }
+
+    @NonNull
+    static TimeRecordStore createStore(int size, long seed) {
+        Random random = new Random(seed);
+        TimeRecordStore store = new TimeRecordStore(size);
+        long endMsec = NOW_MSEC;
+        for (int i = 0; i < size; i++) {
+            long durationMsec = 2000 + random.nextInt(178000);
+            long gapMsec = random.nextInt(4) == 0 ? random.nextInt(3600000) : random.nextInt(30000);
+            long timestampMsec = endMsec - durationMsec;
+            store.add(timestampMsec, durationMsec, COLORS[random.nextInt(COLORS.length)]);
+            endMsec = timestampMsec - gapMsec;
+        }
+        return store;
+    }
+
+    @NonNull
+    static RecordLayer createLayer(int size, long seed, boolean withPyramid) {
+        return new RecordLayer(createStore(size, seed), withPyramid);
+    }
+
+    static long getInterval(@NonNull String name) {
+        switch (name) {
+            case "MIN_1":    return TimelineView.INTERVAL_MIN_1;
+            case "MIN_5":    return TimelineView.INTERVAL_MIN_5;
+            case "MIN_15":   return TimelineView.INTERVAL_MIN_15;
+            case "MIN_30":   return TimelineView.INTERVAL_MIN_30;
+            case "HOUR_1":   return TimelineView.INTERVAL_HOUR_1;
+            case "HOUR_6":   return TimelineView.INTERVAL_HOUR_6;
+            case "HOUR_12":  return TimelineView.INTERVAL_HOUR_12;
+            case "DAY_1":    return TimelineView.INTERVAL_DAY_1;
+            case "DAY_7":    return TimelineView.INTERVAL_DAY_7;
+            case "DAY_30":   return TimelineView.INTERVAL_DAY_30;
+            default:
+                throw new IllegalArgumentException("Unknown interval " + name);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.alexvas.widget;
+
+/**
+ * Range [low, high) of arrays used by immutable versions of a structure grown in place.
+ * Versions share arrays, each version may grow in place only at the side where it ends
+ * at this range, so elements visible to other versions are never overwritten.
+ */
+final class ArrayExtent {
+
+    private int _low;
+    private int _high;
+
+    ArrayExtent(int low, int high) {
+        _low = low;
+        _high = high;
+    }
+
+    /**
+     * Claims count elements before offset if the range starts at it and there is room.
+     */
+    synchronized boolean claimLow(int offset, int count) {
+        if (_low != offset || _low < count)
+            return false;
+        _low -= count;
+        return true;
+    }
+
+    /**
+     * Claims count elements starting at end if the range ends at it and there is room.
+     */
+    synchronized boolean claimHigh(int end, int count, int capacity) {
+        if (_high != end || capacity - _high < count)
+            return false;
+        _high += count;
+        return true;
+    }
+
+    /**
+     * Returns number of elements before offset which may be still claimed by the version.
+     */
+    synchronized int getLowRoom(int offset) {
+        return _low == offset ? offset : 0;
+    }
+
+    /**
+     * Returns number of elements starting at end which may be still claimed by the version.
+     */
+    synchronized int getHighRoom(int end, int capacity) {
+        return _high == end ? capacity - end : 0;
+    }
+
+}
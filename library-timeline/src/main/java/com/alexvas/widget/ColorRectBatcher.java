@@ -0,0 +1,113 @@
+package com.alexvas.widget;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Groups rectangles by color, so every color is drawn with a single drawPath() for rectangles
+ * and a single drawLines() for lines on their left side. Buffers are reused between frames.
+ * Rectangles are kept as coordinates until drawn, so adding them needs no Android classes.
+ */
+final class ColorRectBatcher {
+
+    private int _size = 0;
+    private int[] _colors = new int[4];
+    // Left, top, right, bottom of every rect of the batch
+    private float[][] _rects = new float[4][];
+    private int[] _rectsSize = new int[4];
+    private float[][] _lines = new float[4][];
+    private int[] _linesSize = new int[4];
+    // Created on first draw, rewound for every batch
+    private Path _path = null;
+
+    void clear() {
+        for (int i = 0; i < _size; i++) {
+            _rectsSize[i] = 0;
+            _linesSize[i] = 0;
+        }
+        _size = 0;
+    }
+
+    void add(@ColorInt int color, int left, int top, int right, int bottom) {
+        int batch = getBatch(color);
+        if (right > left) {
+            float[] rects = _rects[batch];
+            int size = _rectsSize[batch];
+            if (size + 4 > rects.length) {
+                rects = Arrays.copyOf(rects, rects.length << 1);
+                _rects[batch] = rects;
+            }
+            rects[size] = left;
+            rects[size + 1] = top;
+            rects[size + 2] = right;
+            rects[size + 3] = bottom;
+            _rectsSize[batch] = size + 4;
+        }
+        // Line on the left side to be sure that rect is not too narrow
+        float[] lines = _lines[batch];
+        int size = _linesSize[batch];
+        if (size + 4 > lines.length) {
+            lines = Arrays.copyOf(lines, lines.length << 1);
+            _lines[batch] = lines;
+        }
+        lines[size] = left;
+        lines[size + 1] = top;
+        lines[size + 2] = left;
+        lines[size + 3] = bottom;
+        _linesSize[batch] = size + 4;
+    }
+
+    /**
+     * Returns number of colors added since the last clear().
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Draws all batches. Paint style and stroke width should already be set.
+     */
+    void draw(@NonNull Canvas canvas, @NonNull Paint paint) {
+        if (_path == null)
+            _path = new Path();
+        for (int i = 0; i < _size; i++) {
+            paint.setColor(_colors[i]);
+            if (_rectsSize[i] > 0) {
+                float[] rects = _rects[i];
+                _path.rewind();
+                for (int j = 0; j < _rectsSize[i]; j += 4)
+                    _path.addRect(rects[j], rects[j + 1], rects[j + 2], rects[j + 3], Path.Direction.CW);
+                canvas.drawPath(_path, paint);
+            }
+            canvas.drawLines(_lines[i], 0, _linesSize[i], paint);
+        }
+    }
+
+    private int getBatch(@ColorInt int color) {
+        for (int i = 0; i < _size; i++) {
+            if (_colors[i] == color)
+                return i;
+        }
+        if (_size == _colors.length) {
+            int capacity = _size << 1;
+            _colors = Arrays.copyOf(_colors, capacity);
+            _rects = Arrays.copyOf(_rects, capacity);
+            _rectsSize = Arrays.copyOf(_rectsSize, capacity);
+            _lines = Arrays.copyOf(_lines, capacity);
+            _linesSize = Arrays.copyOf(_linesSize, capacity);
+        }
+        if (_rects[_size] == null) {
+            _rects[_size] = new float[64];
+            _lines[_size] = new float[64];
+        }
+        _colors[_size] = color;
+        return _size++;
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Bit per fixed time bucket set if any record overlaps the bucket. Answers "is there a record
+ * at t" in O(1) and finds the next gap or the next covered bucket with scans of 64 buckets
+ * per step. Immutable, extended copies are made when records are appended.
+ */
+final class CoverageBitset {
+
+    // Do not build bitset larger than 32 MB, e.g. ~8.5 years at 1 second buckets
+    private static final long MAX_WORDS = 4 * 1024 * 1024;
+
+    private final long _bucketMsec;
+    // Bucket of the lowest bit, always a multiple of 64
+    private final long _firstBucket;
+    private final long[] _words;
+
+    private CoverageBitset(long bucketMsec, long firstBucket, @NonNull long[] words) {
+        _bucketMsec = bucketMsec;
+        _firstBucket = firstBucket;
+        _words = words;
+    }
+
+    /**
+     * Returns bitset for the records or null if records span too many buckets.
+     */
+    @Nullable
+    static CoverageBitset build(@NonNull TimeRecordStore store, long bucketMsec) {
+        return new CoverageBitset(bucketMsec, 0, new long[0]).extend(store, 0, store.size());
+    }
+
+    /**
+     * Returns bitset with records [fromIndex, toIndex) of the store added, or null if all
+     * records span too many buckets. Only added records are walked, existing bits are copied.
+     */
+    @Nullable
+    CoverageBitset extend(@NonNull TimeRecordStore store, int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex)
+            return this;
+        long minBucket = Long.MAX_VALUE;
+        long maxBucket = Long.MIN_VALUE;
+        for (int i = fromIndex; i < toIndex; i++) {
+            long first = Math.floorDiv(store.getTimestampMsec(i), _bucketMsec);
+            minBucket = Math.min(minBucket, first);
+            maxBucket = Math.max(maxBucket, Math.max(first, Math.floorDiv(store.getEndMsec(i) - 1, _bucketMsec)));
+        }
+        long firstBucket = Math.floorDiv(minBucket, 64) * 64;
+        long lastBucket = maxBucket;
+        if (_words.length > 0) {
+            firstBucket = Math.min(firstBucket, _firstBucket);
+            lastBucket = Math.max(lastBucket, _firstBucket + ((long) _words.length << 6) - 1);
+        }
+        long numWords = ((lastBucket - firstBucket) >> 6) + 1;
+        if (numWords > MAX_WORDS)
+            return null;
+
+        long[] words = new long[(int) numWords];
+        if (_words.length > 0)
+            System.arraycopy(_words, 0, words, (int) ((_firstBucket - firstBucket) >> 6), _words.length);
+        for (int i = fromIndex; i < toIndex; i++) {
+            long first = Math.floorDiv(store.getTimestampMsec(i), _bucketMsec) - firstBucket;
+            long last = Math.floorDiv(store.getEndMsec(i) - 1, _bucketMsec) - firstBucket;
+            setRange(words, first, Math.max(first, last));
+        }
+        return new CoverageBitset(_bucketMsec, firstBucket, words);
+    }
+
+    /**
+     * Sets bits [first, last] a word at a time.
+     */
+    private static void setRange(@NonNull long[] words, long first, long last) {
+        int firstWord = (int) (first >> 6);
+        int lastWord = (int) (last >> 6);
+        long firstMask = -1L << (first & 63);
+        long lastMask = -1L >>> (63 - (last & 63));
+        if (firstWord == lastWord) {
+            words[firstWord] |= firstMask & lastMask;
+            return;
+        }
+        words[firstWord] |= firstMask;
+        Arrays.fill(words, firstWord + 1, lastWord, -1L);
+        words[lastWord] |= lastMask;
+    }
+
+    long getBucketMsec() {
+        return _bucketMsec;
+    }
+
+    boolean contains(long timestampMsec) {
+        long bit = Math.floorDiv(timestampMsec, _bucketMsec) - _firstBucket;
+        if (bit < 0 || bit >= ((long) _words.length << 6))
+            return false;
+        return (_words[(int) (bit >> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Returns timestampMsec if it is not covered, otherwise start of the first not covered
+     * bucket after it.
+     */
+    long getNextGapMsec(long timestampMsec) {
+        long bit = Math.floorDiv(timestampMsec, _bucketMsec) - _firstBucket;
+        long gap = findNextBit(bit, true);
+        return gap == bit ? timestampMsec : (gap + _firstBucket) * _bucketMsec;
+    }
+
+    /**
+     * Returns timestampMsec if it is covered, otherwise start of the first covered bucket
+     * after it or -1 if there is none.
+     */
+    long getNextCoverageMsec(long timestampMsec) {
+        long bit = Math.floorDiv(timestampMsec, _bucketMsec) - _firstBucket;
+        long covered = findNextBit(bit, false);
+        if (covered == -1)
+            return -1;
+        return covered == bit ? timestampMsec : (covered + _firstBucket) * _bucketMsec;
+    }
+
+    /**
+     * Returns first bit not less than from which is clear (if clear is set) or set, -1 if none.
+     * Bits outside of words are clear.
+     */
+    private long findNextBit(long from, boolean clear) {
+        long numBits = (long) _words.length << 6;
+        if (from < 0)
+            return clear ? from : findNextBit(0, false);
+        if (from >= numBits)
+            return clear ? from : -1;
+        int wordIndex = (int) (from >> 6);
+        long word = (clear ? ~_words[wordIndex] : _words[wordIndex]) & (-1L << (from & 63));
+        while (word == 0) {
+            if (++wordIndex == _words.length)
+                return clear ? numBits : -1;
+            word = clear ? ~_words[wordIndex] : _words[wordIndex];
+        }
+        return ((long) wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+}
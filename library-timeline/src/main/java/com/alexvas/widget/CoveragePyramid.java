@@ -0,0 +1,324 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Multi-resolution coverage summary of records at fixed time buckets (1 min, 5 min, 1 hour,
+ * 6 hours, 1 day). For every covered bucket keeps ID of the last record (in store order)
+ * touching it, which defines the bucket color the same way drawing records one by one does.
+ * Buckets are sorted in descending order like records. Pyramid of a grown store shares arrays
+ * with the previous one and gets only buckets of added records.
+ */
+final class CoveragePyramid {
+
+    static final long[] BUCKETS_MSEC = {
+            TimelineView.INTERVAL_MIN_1,
+            TimelineView.INTERVAL_MIN_5,
+            TimelineView.INTERVAL_HOUR_1,
+            TimelineView.INTERVAL_HOUR_6,
+            TimelineView.INTERVAL_DAY_1
+    };
+
+    // Levels are built starting from the finest one where records cover not more buckets in
+    // total, so building sorts at most 2 MB of entries
+    private static final long MAX_BUCKET_ENTRIES = 256 * 1024;
+
+    // The finest level built, finer ones are empty
+    private final int _firstLevel;
+    // ID of the first record of the store, IDs minus it are record indexes
+    private final int _firstId;
+    // Per level buckets and last record IDs are at [offset, offset + size) of arrays
+    private final long[][] _buckets = new long[BUCKETS_MSEC.length][];
+    private final int[][] _lastIds = new int[BUCKETS_MSEC.length][];
+    private final int[] _offsets = new int[BUCKETS_MSEC.length];
+    private final int[] _sizes = new int[BUCKETS_MSEC.length];
+    private final ArrayExtent[] _extents = new ArrayExtent[BUCKETS_MSEC.length];
+    // Last record ID of the oldest bucket. Changes when older records touching it are added,
+    // so it is kept per pyramid instead of the shared arrays.
+    private final int[] _tailIds = new int[BUCKETS_MSEC.length];
+
+    private CoveragePyramid(int firstLevel, int firstId) {
+        _firstLevel = firstLevel;
+        _firstId = firstId;
+    }
+
+    /**
+     * Returns pyramid for the records or null if records cover too many buckets even at the
+     * coarsest level. Takes O(n log n) for n records, so better built off the UI thread.
+     */
+    @Nullable
+    static CoveragePyramid build(@NonNull TimeRecordStore store) {
+        int size = store.size();
+        long[] entries = new long[BUCKETS_MSEC.length];
+        for (int level = 0; level < BUCKETS_MSEC.length; level++)
+            entries[level] = countEntries(store, 0, size, level);
+        int firstLevel = 0;
+        while (entries[firstLevel] > MAX_BUCKET_ENTRIES) {
+            if (++firstLevel == BUCKETS_MSEC.length)
+                return null;
+        }
+        return build(store, 0, size, firstLevel, (int) entries[firstLevel]);
+    }
+
+    private static long countEntries(@NonNull TimeRecordStore store, int fromIndex, int toIndex, int level) {
+        long entries = 0;
+        for (int i = fromIndex; i < toIndex; i++) {
+            long first = Math.floorDiv(store.getTimestampMsec(i), BUCKETS_MSEC[level]);
+            long last = Math.floorDiv(store.getEndMsec(i) - 1, BUCKETS_MSEC[level]);
+            entries += Math.max(first, last) - first + 1;
+        }
+        return entries;
+    }
+
+    /**
+     * Builds pyramid of records [fromIndex, toIndex) of the store starting from the specified level.
+     */
+    @NonNull
+    private static CoveragePyramid build(
+            @NonNull TimeRecordStore store,
+            int fromIndex,
+            int toIndex,
+            int firstLevel,
+            int entries) {
+        long bucketMsec = BUCKETS_MSEC[firstLevel];
+        long minBucket = Long.MAX_VALUE;
+        for (int i = fromIndex; i < toIndex; i++)
+            minBucket = Math.min(minBucket, Math.floorDiv(store.getTimestampMsec(i), bucketMsec));
+
+        // Pack bucket and record index into a single long, so sorting groups entries by bucket
+        // with the last record index at the end of each group.
+        long[] packed = new long[entries];
+        int pos = 0;
+        for (int i = fromIndex; i < toIndex; i++) {
+            long first = Math.floorDiv(store.getTimestampMsec(i), bucketMsec);
+            long last = Math.max(first, Math.floorDiv(store.getEndMsec(i) - 1, bucketMsec));
+            for (long bucket = first; bucket <= last; bucket++)
+                packed[pos++] = ((bucket - minBucket) << 31) | (i - fromIndex);
+        }
+        Arrays.sort(packed);
+
+        long[] buckets = new long[16];
+        int[] lastIds = new int[16];
+        int num = 0;
+        int firstId = store.getId(fromIndex);
+        for (int i = packed.length - 1; i >= 0; i--) {
+            long bucket = (packed[i] >>> 31) + minBucket;
+            if (num > 0 && buckets[num - 1] == bucket)
+                continue;
+            if (num == buckets.length) {
+                buckets = Arrays.copyOf(buckets, num << 1);
+                lastIds = Arrays.copyOf(lastIds, num << 1);
+            }
+            buckets[num] = bucket;
+            lastIds[num] = firstId + (int) (packed[i] & Integer.MAX_VALUE);
+            num++;
+        }
+
+        CoveragePyramid pyramid = new CoveragePyramid(firstLevel, store.getId(0));
+        pyramid.setLevel(firstLevel, buckets, lastIds, num);
+        for (int level = firstLevel + 1; level < BUCKETS_MSEC.length; level++)
+            pyramid.buildLevel(level);
+        return pyramid;
+    }
+
+    private void setLevel(int level, @NonNull long[] buckets, @NonNull int[] lastIds, int size) {
+        _buckets[level] = buckets;
+        _lastIds[level] = lastIds;
+        _sizes[level] = size;
+        _tailIds[level] = size > 0 ? lastIds[size - 1] : 0;
+    }
+
+    /**
+     * Aggregates previous (finer) level into the specified one.
+     */
+    private void buildLevel(int level) {
+        int fineSize = _sizes[level - 1];
+        long ratio = BUCKETS_MSEC[level] / BUCKETS_MSEC[level - 1];
+        long[] buckets = new long[fineSize];
+        int[] lastIds = new int[fineSize];
+        int num = 0;
+        for (int i = 0; i < fineSize; i++) {
+            long bucket = Math.floorDiv(getBucket(level - 1, i), ratio);
+            int lastId = getLastId(level - 1, i);
+            if (num > 0 && buckets[num - 1] == bucket) {
+                lastIds[num - 1] = Math.max(lastIds[num - 1], lastId);
+            } else {
+                buckets[num] = bucket;
+                lastIds[num] = lastId;
+                num++;
+            }
+        }
+        setLevel(level, buckets, lastIds, num);
+    }
+
+    /**
+     * Returns pyramid of the store grown from the pyramid one by count records newer than
+     * all its records, or null if they cover too many buckets. Takes O(k log k) for k records.
+     */
+    @Nullable
+    CoveragePyramid withNewer(@NonNull TimeRecordStore store, int count) {
+        long entries = countEntries(store, 0, count, _firstLevel);
+        if (entries > MAX_BUCKET_ENTRIES)
+            return null;
+        CoveragePyramid added = build(store, 0, count, _firstLevel, (int) entries);
+        CoveragePyramid pyramid = new CoveragePyramid(_firstLevel, store.getId(0));
+        for (int level = _firstLevel; level < BUCKETS_MSEC.length; level++) {
+            // Added records start not earlier than the newest record, which touches all buckets
+            // up to the newest one, so added buckets not newer than it are already present and
+            // their last records are older than added ones.
+            int newer = _sizes[level] > 0 ?
+                    added.getFirstIndexNotAfter(level, getBucket(level, 0)) :
+                    added.size(level);
+            pyramid.growLevel(this, level, added, 0, newer, false, _tailIds[level]);
+        }
+        return pyramid;
+    }
+
+    /**
+     * Returns pyramid of the store grown from the pyramid one by count records older than
+     * all its records, or null if they cover too many buckets or touch buckets newer than the
+     * oldest one. Pyramid should be built again then. Takes O(k log k) for k records.
+     */
+    @Nullable
+    CoveragePyramid withOlder(@NonNull TimeRecordStore store, int count) {
+        int size = store.size();
+        long entries = countEntries(store, size - count, size, _firstLevel);
+        if (entries > MAX_BUCKET_ENTRIES)
+            return null;
+        CoveragePyramid added = build(store, size - count, size, _firstLevel, (int) entries);
+        int oldest = _sizes[_firstLevel] - 1;
+        if (oldest >= 0 && added.size(_firstLevel) > 0 && added.getBucket(_firstLevel, 0) > getBucket(_firstLevel, oldest))
+            return null;
+        CoveragePyramid pyramid = new CoveragePyramid(_firstLevel, store.getId(0));
+        for (int level = _firstLevel; level < BUCKETS_MSEC.length; level++) {
+            // Only the oldest bucket may be touched by added records, which are the last ones then
+            int tailId = _tailIds[level];
+            int from = 0;
+            if (_sizes[level] > 0 && added.size(level) > 0 &&
+                added.getBucket(level, 0) == getBucket(level, _sizes[level] - 1)) {
+                tailId = added.getLastId(level, 0);
+                from = 1;
+            }
+            pyramid.growLevel(this, level, added, from, added.size(level), true, tailId);
+        }
+        return pyramid;
+    }
+
+    /**
+     * Sets level to the base one with buckets [fromIndex, toIndex) of added pyramid added at
+     * the older or newer side.
+     * @param tailId last record ID of the base oldest bucket
+     */
+    private void growLevel(
+            @NonNull CoveragePyramid base,
+            int level,
+            @NonNull CoveragePyramid added,
+            int fromIndex,
+            int toIndex,
+            boolean older,
+            int tailId) {
+        int count = toIndex - fromIndex;
+        int size = base._sizes[level];
+        long[] buckets = base._buckets[level];
+        int offset = base._offsets[level];
+        ArrayExtent extent = base._extents[level];
+        _sizes[level] = size + count;
+        _tailIds[level] = tailId;
+        boolean claimed = count == 0 || extent != null && (older ?
+                extent.claimHigh(offset + size, count, buckets.length) :
+                extent.claimLow(offset, count));
+        if (claimed) {
+            _buckets[level] = buckets;
+            _lastIds[level] = base._lastIds[level];
+            _extents[level] = extent;
+            _offsets[level] = older ? offset : offset - count;
+        } else {
+            // Room for as many buckets again at the growing side, room at the other side is
+            // kept if the base level may still grow there
+            int room = Math.max(16, (size + count) >> 1);
+            int lowRoom = !older ? room : extent != null ? extent.getLowRoom(offset) : 0;
+            int highRoom = older ? room : extent != null ? extent.getHighRoom(offset + size, buckets.length) : 0;
+            int capacity = lowRoom + size + count + highRoom;
+            int baseOffset = lowRoom + (older ? 0 : count);
+            _buckets[level] = new long[capacity];
+            _lastIds[level] = new int[capacity];
+            System.arraycopy(buckets, offset, _buckets[level], baseOffset, size);
+            System.arraycopy(base._lastIds[level], offset, _lastIds[level], baseOffset, size);
+            _extents[level] = new ArrayExtent(lowRoom, lowRoom + size + count);
+            _offsets[level] = lowRoom;
+        }
+        if (count == 0)
+            return;
+        int start = _offsets[level] + (older ? size : 0);
+        for (int i = 0; i < count; i++) {
+            _buckets[level][start + i] = added.getBucket(level, fromIndex + i);
+            _lastIds[level][start + i] = added.getLastId(level, fromIndex + i);
+        }
+        if (older && size > 0) {
+            // The base oldest bucket is not the oldest one anymore
+            _lastIds[level][start - 1] = tailId;
+        }
+        if (older || size == 0)
+            _tailIds[level] = added.getLastId(level, toIndex - 1);
+    }
+
+    /**
+     * Returns the coarsest level with bucket not wider than one pixel or -1 if there is none
+     * or it was not built.
+     */
+    int getLevel(float msecPerPixel) {
+        for (int level = BUCKETS_MSEC.length - 1; level >= _firstLevel; level--) {
+            if (BUCKETS_MSEC[level] <= msecPerPixel)
+                return level;
+        }
+        return -1;
+    }
+
+    static long getBucketMsec(int level) {
+        return BUCKETS_MSEC[level];
+    }
+
+    int size(int level) {
+        return _sizes[level];
+    }
+
+    /**
+     * Returns bucket number. Bucket starts at bucket * getBucketMsec(level).
+     */
+    long getBucket(int level, int index) {
+        return _buckets[level][_offsets[level] + index];
+    }
+
+    /**
+     * Returns index of the last record in store touching the bucket.
+     */
+    int getLastIndex(int level, int index) {
+        return getLastId(level, index) - _firstId;
+    }
+
+    private int getLastId(int level, int index) {
+        if (index == _sizes[level] - 1)
+            return _tailIds[level];
+        return _lastIds[level][_offsets[level] + index];
+    }
+
+    /**
+     * Returns index of the first bucket not later than the specified one or size(level).
+     */
+    int getFirstIndexNotAfter(int level, long bucket) {
+        int low = 0;
+        int high = _sizes[level];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getBucket(level, mid) > bucket)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+}
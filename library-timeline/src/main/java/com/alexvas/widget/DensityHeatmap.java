@@ -0,0 +1,117 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Number of records overlapping every fixed time bucket of the visible window. Buckets are
+ * aligned to absolute time, so while panning at the same zoom counts of buckets still visible
+ * are kept and only newly exposed buckets are counted. Only counts of the current zoom are kept,
+ * after zooming all visible buckets are counted again. Buffers are reused between updates.
+ */
+final class DensityHeatmap {
+
+    private RecordLayer _layer = null;
+    private long _bucketMsec = 0;
+    private long _firstBucket = 0;
+    private int _size = 0;
+    private int[] _counts = new int[0];
+
+    /**
+     * Counts records overlapping buckets [firstBucket, firstBucket + size).
+     */
+    void update(@NonNull RecordLayer layer, long bucketMsec, long firstBucket, int size) {
+        if (layer != _layer || bucketMsec != _bucketMsec) {
+            _layer = layer;
+            _bucketMsec = bucketMsec;
+            _size = 0;
+        }
+        if (size > _counts.length) {
+            int[] counts = new int[Math.max(size, _counts.length << 1)];
+            System.arraycopy(_counts, 0, counts, 0, _size);
+            _counts = counts;
+        }
+        // Move counts of buckets still visible to their new positions
+        long keptFirst = Math.max(firstBucket, _firstBucket);
+        long keptEnd = Math.min(firstBucket + size, _firstBucket + _size);
+        if (keptFirst < keptEnd) {
+            System.arraycopy(
+                    _counts, (int) (keptFirst - _firstBucket),
+                    _counts, (int) (keptFirst - firstBucket),
+                    (int) (keptEnd - keptFirst));
+        } else {
+            keptFirst = firstBucket;
+            keptEnd = firstBucket;
+        }
+        _firstBucket = firstBucket;
+        _size = size;
+        count(firstBucket, keptFirst);
+        count(keptEnd, firstBucket + size);
+    }
+
+    /**
+     * Counts records overlapping buckets [fromBucket, toBucket) in a single pass. Every record
+     * adds 1 at its first bucket and subtracts 1 after its last one, so counting takes
+     * O(records + buckets) however long records are.
+     */
+    private void count(long fromBucket, long toBucket) {
+        if (fromBucket >= toBucket)
+            return;
+        int from = (int) (fromBucket - _firstBucket);
+        int to = (int) (toBucket - _firstBucket);
+        Arrays.fill(_counts, from, to, 0);
+        RecordIndex index = _layer.index;
+        long fromMsec = fromBucket * _bucketMsec;
+        long toMsec = toBucket * _bucketMsec;
+        if (index.isSorted()) {
+            // Records started within the range, then older ones overlapping its start
+            int start = index.getFirstIndexStartedBefore(toMsec);
+            int end = index.getFirstIndexStartedBefore(fromMsec);
+            for (int i = start; i < end; i++)
+                addRecord(index, i, from, to);
+            for (int i = index.getFirstIndexEndedAfter(end, fromMsec);
+                 i != -1;
+                 i = index.getFirstIndexEndedAfter(i + 1, fromMsec))
+                addRecord(index, i, from, to);
+        } else {
+            for (int i = 0; i < index.size(); i++) {
+                if (index.getStart(i) < toMsec && index.getEnd(i) > fromMsec)
+                    addRecord(index, i, from, to);
+            }
+        }
+        for (int i = from + 1; i < to; i++)
+            _counts[i] += _counts[i - 1];
+    }
+
+    /**
+     * Adds record to differences of counts of buckets [from, to).
+     */
+    private void addRecord(@NonNull RecordIndex index, int i, int from, int to) {
+        long first = Math.floorDiv(index.getStart(i), _bucketMsec) - _firstBucket;
+        long last = Math.floorDiv(index.getEnd(i) - 1, _bucketMsec) - _firstBucket;
+        _counts[(int) Math.max(first, from)]++;
+        if (last + 1 < to)
+            _counts[(int) (last + 1)]--;
+    }
+
+    long getFirstBucket() {
+        return _firstBucket;
+    }
+
+    int size() {
+        return _size;
+    }
+
+    int getCount(int index) {
+        return _counts[index];
+    }
+
+    /**
+     * Returns 0 for no records, otherwise 1 + floor(log2(count)) limited to maxLevel.
+     */
+    static int getLevel(int count, int maxLevel) {
+        return Math.min(32 - Integer.numberOfLeadingZeros(count), maxLevel);
+    }
+
+}
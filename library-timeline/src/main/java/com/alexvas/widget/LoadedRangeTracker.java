@@ -0,0 +1,102 @@
+package com.alexvas.widget;
+
+import java.util.Arrays;
+
+/**
+ * Set of requested time ranges kept as sorted disjoint [start, end) ranges. Adjacent ranges are
+ * joined, so scrolling through history keeps a single range and lookups stay cheap.
+ */
+final class LoadedRangeTracker {
+
+    private long[] _starts = new long[8];
+    private long[] _ends = new long[8];
+    private int _size = 0;
+
+    /**
+     * Returns true if [start, end) is fully covered.
+     */
+    boolean contains(long start, long end) {
+        int i = findRange(start);
+        return i >= 0 && _ends[i] >= end;
+    }
+
+    void add(long start, long end) {
+        if (start >= end)
+            return;
+        // First range ending not before start and first range starting after end
+        int from = 0;
+        while (from < _size && _ends[from] < start)
+            from++;
+        int to = from;
+        while (to < _size && _starts[to] <= end)
+            to++;
+        if (from < to) {
+            start = Math.min(start, _starts[from]);
+            end = Math.max(end, _ends[to - 1]);
+        }
+        int removed = to - from;
+        if (removed == 0) {
+            if (_size == _starts.length) {
+                _starts = Arrays.copyOf(_starts, _size << 1);
+                _ends = Arrays.copyOf(_ends, _size << 1);
+            }
+            System.arraycopy(_starts, from, _starts, from + 1, _size - from);
+            System.arraycopy(_ends, from, _ends, from + 1, _size - from);
+            _size++;
+        } else if (removed > 1) {
+            System.arraycopy(_starts, to, _starts, from + 1, _size - to);
+            System.arraycopy(_ends, to, _ends, from + 1, _size - to);
+            _size -= removed - 1;
+        }
+        _starts[from] = start;
+        _ends[from] = end;
+    }
+
+    void remove(long start, long end) {
+        if (start >= end)
+            return;
+        for (int i = 0; i < _size; i++) {
+            if (_ends[i] <= start || _starts[i] >= end)
+                continue;
+            long rangeStart = _starts[i];
+            long rangeEnd = _ends[i];
+            if (rangeStart < start && rangeEnd > end) {
+                // Split range in two
+                _ends[i] = start;
+                add(end, rangeEnd);
+                return;
+            }
+            if (rangeStart < start) {
+                _ends[i] = start;
+            } else if (rangeEnd > end) {
+                _starts[i] = end;
+            } else {
+                System.arraycopy(_starts, i + 1, _starts, i, _size - i - 1);
+                System.arraycopy(_ends, i + 1, _ends, i, _size - i - 1);
+                _size--;
+                i--;
+            }
+        }
+    }
+
+    void clear() {
+        _size = 0;
+    }
+
+    /**
+     * Returns index of the range containing time or -1.
+     */
+    private int findRange(long time) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_ends[mid] <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low < _size && _starts[low] <= time ? low : -1;
+    }
+
+}
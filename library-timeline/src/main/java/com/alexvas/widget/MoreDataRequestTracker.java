@@ -0,0 +1,78 @@
+package com.alexvas.widget;
+
+/**
+ * Bookkeeping of OnTimelineListener.onRequestMore*Data() requests per layer. Allows a single
+ * outstanding request per layer, keeps minimum interval between requests and delays requests
+ * exponentially while they return no records.
+ */
+final class MoreDataRequestTracker {
+
+    static final long DEFAULT_MIN_INTERVAL_MSEC = 1000;
+    private static final long MAX_BACKOFF_MSEC = 5 * 60 * 1000;
+    // Request not completed during this time is considered lost
+    private static final long REQUEST_TIMEOUT_MSEC = 30 * 1000;
+
+    private final boolean[] _inFlight;
+    private final long[] _requestedAt;
+    private final long[] _nextAllowedAt;
+    private final long[] _backoffMsec;
+    private long _minIntervalMsec = DEFAULT_MIN_INTERVAL_MSEC;
+
+    MoreDataRequestTracker(int layers) {
+        _inFlight = new boolean[layers];
+        _requestedAt = new long[layers];
+        _nextAllowedAt = new long[layers];
+        _backoffMsec = new long[layers];
+    }
+
+    void setMinIntervalMsec(long minIntervalMsec) {
+        _minIntervalMsec = Math.max(0, minIntervalMsec);
+    }
+
+    /**
+     * Returns true and marks request as outstanding if the layer can be requested now.
+     */
+    boolean tryRequest(int layer, long nowMsec) {
+        if (_inFlight[layer] && nowMsec - _requestedAt[layer] < REQUEST_TIMEOUT_MSEC)
+            return false;
+        if (nowMsec < _nextAllowedAt[layer])
+            return false;
+        _inFlight[layer] = true;
+        _requestedAt[layer] = nowMsec;
+        _nextAllowedAt[layer] = nowMsec + _minIntervalMsec;
+        return true;
+    }
+
+    boolean isInFlight(int layer) {
+        return _inFlight[layer];
+    }
+
+    /**
+     * Completes outstanding request. If no records were loaded, the next request is delayed
+     * twice as long as the previous one, up to MAX_BACKOFF_MSEC.
+     */
+    void onLoaded(int layer, boolean empty, long nowMsec) {
+        _inFlight[layer] = false;
+        if (empty) {
+            long backoffMsec = Math.max(_minIntervalMsec, 1000);
+            if (_backoffMsec[layer] > 0)
+                backoffMsec = Math.min(_backoffMsec[layer] << 1, MAX_BACKOFF_MSEC);
+            _backoffMsec[layer] = backoffMsec;
+            _nextAllowedAt[layer] = Math.max(_nextAllowedAt[layer], nowMsec + backoffMsec);
+        } else {
+            _backoffMsec[layer] = 0;
+        }
+    }
+
+    void onFailed(int layer, long nowMsec) {
+        _inFlight[layer] = false;
+        _nextAllowedAt[layer] = Math.max(_nextAllowedAt[layer], nowMsec + _minIntervalMsec);
+    }
+
+    void reset(int layer) {
+        _inFlight[layer] = false;
+        _nextAllowedAt[layer] = 0;
+        _backoffMsec[layer] = 0;
+    }
+
+}
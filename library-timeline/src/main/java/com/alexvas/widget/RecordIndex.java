@@ -0,0 +1,291 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Interval index over records sorted by timestamp in descending order (newest first).
+ * Works directly over store arrays and keeps only a max-end segment tree over blocks
+ * of BLOCK_SIZE records, so "record containing t", "next record after t" and
+ * "previous record before t" are answered in O(log n) without per-record memory.
+ * Falls back to linear scans if records are not sorted.
+ * Blocks are aligned to positions in store arrays, so index of a store grown in place
+ * shares the tree with the previous index and computes only blocks filled by added records.
+ */
+final class RecordIndex {
+
+    private static final int BLOCK_SHIFT = 5;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final int _size;
+    // Position of the first record in store arrays
+    private final int _offset;
+    private final long[] _starts;
+    private final long[] _durations;
+    // Max record end per block at level 0 and per 2^level blocks at the next levels.
+    // Only entries of blocks completely filled by records are valid, blocks partially
+    // filled at both ends are scanned.
+    private final long[][] _maxEnds;
+    private final boolean _sorted;
+
+    RecordIndex(@NonNull TimeRecordStore store) {
+        this(store, null);
+    }
+
+    /**
+     * Builds index over store grown from the one indexed by base. If store shares arrays
+     * with the base one, only entries of blocks filled by added records are computed.
+     */
+    RecordIndex(@NonNull TimeRecordStore store, @Nullable RecordIndex base) {
+        _size = store.size();
+        _offset = store.getOffset();
+        _starts = store.getTimestamps();
+        _durations = store.getDurations();
+        int low = _offset;
+        int high = _offset + _size;
+        boolean extend = base != null && base._starts == _starts &&
+                base._offset >= low && base._offset + base._size <= high;
+        int baseLow = extend ? base._offset : high;
+        int baseHigh = extend ? base._offset + base._size : high;
+
+        boolean sorted = !extend || base._sorted;
+        for (int i = low + 1; i < high && sorted; i++) {
+            if (i == baseLow + 1)
+                i = Math.max(i, baseHigh);
+            if (i < high && _starts[i - 1] < _starts[i])
+                sorted = false;
+        }
+        _sorted = sorted;
+
+        if (extend) {
+            _maxEnds = base._maxEnds;
+        } else {
+            int levels = 1;
+            while ((_starts.length >> (BLOCK_SHIFT + levels)) > 0)
+                levels++;
+            _maxEnds = new long[levels][];
+            for (int level = 0; level < levels; level++)
+                _maxEnds[level] = new long[_starts.length >> (BLOCK_SHIFT + level)];
+        }
+        // Compute entries completely filled now except ones filled for base
+        int firstBlock = getFirstFullBlock();
+        int endBlock = getEndFullBlock();
+        int baseFirstBlock = extend ? base.getFirstFullBlock() : endBlock;
+        int baseEndBlock = extend ? Math.max(baseFirstBlock, base.getEndFullBlock()) : endBlock;
+        for (int level = 0; level < _maxEnds.length; level++) {
+            int first = getFirstEntry(firstBlock, level);
+            int end = endBlock >> level;
+            int baseFirst = Math.max(first, getFirstEntry(baseFirstBlock, level));
+            int baseEnd = Math.min(end, baseEndBlock >> level);
+            if (baseFirst >= baseEnd) {
+                baseFirst = end;
+                baseEnd = end;
+            }
+            for (int entry = first; entry < baseFirst; entry++)
+                computeEntry(level, entry);
+            for (int entry = baseEnd; entry < end; entry++)
+                computeEntry(level, entry);
+        }
+    }
+
+    private void computeEntry(int level, int entry) {
+        long maxEnd = Long.MIN_VALUE;
+        if (level == 0) {
+            int end = (entry + 1) << BLOCK_SHIFT;
+            for (int i = entry << BLOCK_SHIFT; i < end; i++)
+                maxEnd = Math.max(maxEnd, _starts[i] + _durations[i]);
+        } else {
+            maxEnd = Math.max(_maxEnds[level - 1][entry << 1], _maxEnds[level - 1][(entry << 1) + 1]);
+        }
+        _maxEnds[level][entry] = maxEnd;
+    }
+
+    // First block completely filled by records
+    private int getFirstFullBlock() {
+        return (_offset + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+    }
+
+    // Block after the last one completely filled by records
+    private int getEndFullBlock() {
+        return (_offset + _size) >> BLOCK_SHIFT;
+    }
+
+    private static int getFirstEntry(int firstBlock, int level) {
+        return (firstBlock + (1 << level) - 1) >> level;
+    }
+
+    int size() {
+        return _size;
+    }
+
+    long getStart(int index) {
+        return _starts[_offset + index];
+    }
+
+    long getEnd(int index) {
+        return _starts[_offset + index] + _durations[_offset + index];
+    }
+
+    boolean isSorted() {
+        return _sorted;
+    }
+
+    /**
+     * Returns index of the first record started not later than timestampMsec,
+     * or size() if all records started later.
+     */
+    int getFirstIndexStartedNotAfter(long timestampMsec) {
+        return getFirstIndexStartedBefore(timestampMsec + 1);
+    }
+
+    /**
+     * Returns index of the first record started earlier than timestampMsec,
+     * or size() if all records started later.
+     */
+    int getFirstIndexStartedBefore(long timestampMsec) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getStart(mid) >= timestampMsec)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns index of the first record containing timestampMsec or -1 if not found.
+     * @param inclusiveEnd whether record end timestamp is treated as part of the record
+     */
+    int getContainingIndex(long timestampMsec, boolean inclusiveEnd) {
+        long threshold = inclusiveEnd ? timestampMsec - 1 : timestampMsec;
+        if (!_sorted) {
+            for (int i = 0; i < _size; i++) {
+                if (timestampMsec >= getStart(i) && getEnd(i) > threshold)
+                    return i;
+            }
+            return -1;
+        }
+        return getFirstIndexEndedAfter(getFirstIndexStartedNotAfter(timestampMsec), threshold);
+    }
+
+    /**
+     * Returns index of the first record not less than fromIndex ended after timestampMsec,
+     * or -1 if not found. Cost depends on the number of blocks skipped, not records.
+     */
+    int getFirstIndexEndedAfter(int fromIndex, long timestampMsec) {
+        if (fromIndex >= _size)
+            return -1;
+        if (!_sorted) {
+            for (int i = fromIndex; i < _size; i++) {
+                if (getEnd(i) > timestampMsec)
+                    return i;
+            }
+            return -1;
+        }
+        // Scan the rest of the first block, then find the next full block with a record ended
+        // after timestampMsec and scan it. Scan the last partially filled block if not found.
+        int position = _offset + fromIndex;
+        int high = _offset + _size;
+        int blockEnd = Math.min(((position >> BLOCK_SHIFT) + 1) << BLOCK_SHIFT, high);
+        for (int i = position; i < blockEnd; i++) {
+            if (_starts[i] + _durations[i] > timestampMsec)
+                return i - _offset;
+        }
+        int fromBlock = (position >> BLOCK_SHIFT) + 1;
+        int endBlock = Math.max(fromBlock, getEndFullBlock());
+        int block = getFirstBlockEndedAfter(fromBlock, endBlock, timestampMsec);
+        int start = block != -1 ? block << BLOCK_SHIFT : endBlock << BLOCK_SHIFT;
+        int end = block != -1 ? start + BLOCK_SIZE : high;
+        for (int i = start; i < end; i++) {
+            if (_starts[i] + _durations[i] > timestampMsec)
+                return i - _offset;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns index of the oldest record started after timestampMsec or -1 if not found.
+     * Returns -1 as well if there are no records started at or before timestampMsec.
+     */
+    int getNextIndex(long timestampMsec) {
+        if (!_sorted) {
+            for (int i = 1; i < _size; i++) {
+                if (timestampMsec < getStart(i - 1) && timestampMsec >= getStart(i))
+                    return i - 1;
+            }
+            return -1;
+        }
+        int index = getFirstIndexStartedNotAfter(timestampMsec);
+        return (index > 0 && index < _size) ? index - 1 : -1;
+    }
+
+    /**
+     * Returns index of the newest record started before timestampMsec or -1 if not found.
+     */
+    int getPrevIndex(long timestampMsec) {
+        if (!_sorted) {
+            for (int i = 0; i < _size; i++) {
+                if (getStart(i) < timestampMsec)
+                    return i;
+            }
+            return -1;
+        }
+        int index = getFirstIndexStartedBefore(timestampMsec);
+        return index < _size ? index : -1;
+    }
+
+    /**
+     * Returns index of the record containing timestampMsec (end inclusive) or,
+     * if timestampMsec is in a gap between records, index of the record following the gap.
+     * Returns -1 if not found.
+     */
+    int getContainingOrNextIndex(long timestampMsec) {
+        if (!_sorted) {
+            for (int i = 0; i < _size; i++) {
+                if (timestampMsec >= getStart(i) && timestampMsec <= getEnd(i))
+                    return i;
+                else if (i > 0 && timestampMsec > getEnd(i) && timestampMsec < getStart(i - 1))
+                    return i - 1;
+            }
+            return -1;
+        }
+        int index = getFirstIndexStartedNotAfter(timestampMsec);
+        if (index >= _size)
+            return -1;
+        if (timestampMsec <= getEnd(index))
+            return index;
+        if (index > 0)
+            return index - 1;
+        // Newest record ended before timestampMsec. Check older long records.
+        return getContainingIndex(timestampMsec, true);
+    }
+
+    /**
+     * Returns the first block in [fromBlock, endBlock) having a record ended after threshold, or -1.
+     * Goes over the largest tree entries inside the range and descends into the first matching one.
+     */
+    private int getFirstBlockEndedAfter(int fromBlock, int endBlock, long threshold) {
+        int block = fromBlock;
+        int level = 0;
+        while (block < endBlock) {
+            while (level + 1 < _maxEnds.length && (block & ((2 << level) - 1)) == 0 && block + (2 << level) <= endBlock)
+                level++;
+            while (block + (1 << level) > endBlock)
+                level--;
+            if (_maxEnds[level][block >> level] > threshold) {
+                while (level > 0) {
+                    level--;
+                    if (_maxEnds[level][block >> level] <= threshold)
+                        block += 1 << level;
+                }
+                return block;
+            }
+            block += 1 << level;
+        }
+        return -1;
+    }
+
+}
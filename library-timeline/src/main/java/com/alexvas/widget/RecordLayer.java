@@ -0,0 +1,124 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable set of records with structures derived from them. Replaced as a whole every time
+ * records are set, so layout running on a background thread always sees consistent data.
+ * Layers derived by merging overlapping records or slicing have no coverage pyramid, it is
+ * built again by the view off the UI thread.
+ */
+final class RecordLayer {
+
+    static final RecordLayer EMPTY = new RecordLayer(new TimeRecordStore(0), false);
+
+    @NonNull final TimeRecordStore store;
+    @NonNull final RecordIndex index;
+    @Nullable final CoveragePyramid pyramid;
+    @Nullable final CoverageBitset coverage;
+
+    RecordLayer(@NonNull TimeRecordStore store, boolean withPyramid) {
+        this(store, new RecordIndex(store), withPyramid ? CoveragePyramid.build(store) : null, null);
+    }
+
+    private RecordLayer(
+            @NonNull TimeRecordStore store,
+            @NonNull RecordIndex index,
+            @Nullable CoveragePyramid pyramid,
+            @Nullable CoverageBitset coverage) {
+        this.store = store;
+        this.index = index;
+        this.pyramid = pyramid;
+        this.coverage = coverage;
+    }
+
+    /**
+     * Returns layer with records newer than the layer ones added. If all added records are
+     * not older than the layer ones, store, index and pyramid are grown taking amortized O(k)
+     * for k records, otherwise records are merged in descending order and pyramid is dropped.
+     */
+    @NonNull
+    RecordLayer appendNewer(@NonNull TimeRecordStore records) {
+        if (!store.isEmpty() && !records.isEmpty() &&
+            records.getTimestampMsec(records.size() - 1) < store.getTimestampMsec(0))
+            return merge(TimeRecordStore.merge(records, store), records);
+        TimeRecordStore grown = store.grow(records, false);
+        return new RecordLayer(
+                grown,
+                new RecordIndex(grown, index),
+                pyramid != null ? pyramid.withNewer(grown, records.size()) : null,
+                coverage != null ? coverage.extend(records, 0, records.size()) : null);
+    }
+
+    /**
+     * Returns layer with records older than the layer ones added. If all added records are
+     * not newer than the layer ones, store, index and pyramid are grown taking amortized O(k)
+     * for k records, otherwise records are merged in descending order and pyramid is dropped.
+     */
+    @NonNull
+    RecordLayer appendOlder(@NonNull TimeRecordStore records) {
+        if (!store.isEmpty() && !records.isEmpty() &&
+            records.getTimestampMsec(0) > store.getTimestampMsec(store.size() - 1))
+            return merge(TimeRecordStore.merge(store, records), records);
+        TimeRecordStore grown = store.grow(records, true);
+        return new RecordLayer(
+                grown,
+                new RecordIndex(grown, index),
+                pyramid != null ? pyramid.withOlder(grown, records.size()) : null,
+                coverage != null ? coverage.extend(records, 0, records.size()) : null);
+    }
+
+    @NonNull
+    private RecordLayer merge(@NonNull TimeRecordStore merged, @NonNull TimeRecordStore records) {
+        return new RecordLayer(
+                merged,
+                new RecordIndex(merged),
+                null,
+                coverage != null ? coverage.extend(records, 0, records.size()) : null);
+    }
+
+    /**
+     * Returns layer with only records [fromIndex, toIndex) left.
+     */
+    @NonNull
+    RecordLayer slice(int fromIndex, int toIndex) {
+        TimeRecordStore sliced = store.slice(fromIndex, toIndex);
+        return new RecordLayer(
+                sliced,
+                new RecordIndex(sliced),
+                null,
+                coverage != null ? CoverageBitset.build(sliced, coverage.getBucketMsec()) : null);
+    }
+
+    /**
+     * Returns layer with the specified coverage pyramid built for its store, e.g. on another thread.
+     */
+    @NonNull
+    RecordLayer withPyramid(@Nullable CoveragePyramid pyramid) {
+        return new RecordLayer(store, index, pyramid, coverage);
+    }
+
+    /**
+     * Returns layer with coverage pyramid built or removed. Index is reused.
+     */
+    @NonNull
+    RecordLayer withPyramid(boolean enabled) {
+        if (enabled == (pyramid != null))
+            return this;
+        return new RecordLayer(store, index, enabled ? CoveragePyramid.build(store) : null, coverage);
+    }
+
+    /**
+     * Returns layer with coverage bitset of the specified bucket size built, or removed if
+     * bucket size is 0. Index and pyramid are reused.
+     */
+    @NonNull
+    RecordLayer withCoverage(long bucketMsec) {
+        long current = coverage != null ? coverage.getBucketMsec() : 0;
+        if (bucketMsec == current)
+            return this;
+        return new RecordLayer(store, index, pyramid, bucketMsec > 0 ? CoverageBitset.build(store, bucketMsec) : null);
+    }
+
+}
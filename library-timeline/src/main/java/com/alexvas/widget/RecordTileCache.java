@@ -0,0 +1,164 @@
+package com.alexvas.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Byte-bounded LRU cache of record layers rasterized into bitmap tiles. Every tile covers a fixed
+ * time range at the current zoom, so panning draws cached bitmaps with a translation and
+ * rasterizes only tiles entering the view.
+ */
+final class RecordTileCache {
+
+    // Layers are TimelineView.LAYER_* constants
+    private static final int LAYERS = 3;
+
+    // Tile width in pixels at any zoom
+    static final int TILE_WIDTH = 256;
+
+    interface Renderer {
+        /**
+         * Draws layer records within [startMsec, endMsec) to the tile canvas.
+         * Record at time t should be drawn at x = (t - startMsec) * msecInPixels.
+         */
+        void renderTile(
+                @NonNull Canvas canvas,
+                int layer,
+                long startMsec,
+                long endMsec,
+                float msecInPixels,
+                int height);
+    }
+
+    private static final class TileKey {
+        int layer;
+        int version;
+        long durationMsec;
+        int height;
+        long index;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof TileKey))
+                return false;
+            TileKey key = (TileKey) o;
+            return layer == key.layer &&
+                   version == key.version &&
+                   durationMsec == key.durationMsec &&
+                   height == key.height &&
+                   index == key.index;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = layer;
+            result = 31 * result + version;
+            result = 31 * result + Long.hashCode(durationMsec);
+            result = 31 * result + height;
+            result = 31 * result + Long.hashCode(index);
+            return result;
+        }
+    }
+
+    private final LruCache<TileKey, Bitmap> _tiles;
+    private final Renderer _renderer;
+    // Incremented every time layer records change, so old tiles are never hit
+    private final int[] _versions = new int[LAYERS];
+    // Reused for lookups, so drawing cached tiles does not allocate
+    private final TileKey _lookupKey = new TileKey();
+    private final Canvas _tileCanvas = new Canvas();
+
+    RecordTileCache(int maxBytes, @NonNull Renderer renderer) {
+        _renderer = renderer;
+        _tiles = new LruCache<TileKey, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(TileKey key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Drops tiles of the layer, e.g. after its records were changed.
+     */
+    void invalidate(int layer) {
+        _versions[layer]++;
+        for (TileKey key : _tiles.snapshot().keySet()) {
+            if (key.layer == layer)
+                _tiles.remove(key);
+        }
+    }
+
+    /**
+     * Drops tiles of the layer overlapping [startMsec, endMsec] and tiles on their left side,
+     * which may contain line drawn on the left side of the record started at startMsec.
+     */
+    void invalidate(int layer, long startMsec, long endMsec) {
+        for (TileKey key : _tiles.snapshot().keySet()) {
+            if (key.layer == layer &&
+                key.index * key.durationMsec <= endMsec &&
+                (key.index + 2) * key.durationMsec >= startMsec)
+                _tiles.remove(key);
+        }
+    }
+
+    void invalidateAll() {
+        for (int layer = 0; layer < LAYERS; layer++)
+            _versions[layer]++;
+        _tiles.evictAll();
+    }
+
+    /**
+     * Draws layer tiles covering [minValue, minValue + intervalMsec) in the vertical band [top, bottom).
+     */
+    void draw(
+            @NonNull Canvas canvas,
+            int layer,
+            long minValue,
+            long intervalMsec,
+            int width,
+            int top,
+            int bottom) {
+        int height = bottom - top;
+        if (width <= 0 || height <= 0)
+            return;
+        long durationMsec = Math.max(1, intervalMsec * TILE_WIDTH / width);
+        float msecInPixels = width / (float) intervalMsec;
+        int tileWidth = Math.max(1, (int) Math.ceil(durationMsec * msecInPixels));
+        long first = Math.floorDiv(minValue, durationMsec);
+        long last = Math.floorDiv(minValue + intervalMsec, durationMsec);
+        for (long index = first; index <= last; index++) {
+            long startMsec = index * durationMsec;
+            Bitmap tile = getTile(layer, durationMsec, height, index);
+            if (tile == null) {
+                tile = Bitmap.createBitmap(tileWidth, height, Bitmap.Config.ARGB_8888);
+                _tileCanvas.setBitmap(tile);
+                _renderer.renderTile(_tileCanvas, layer, startMsec, startMsec + durationMsec, msecInPixels, height);
+                _tileCanvas.setBitmap(null);
+                TileKey key = new TileKey();
+                key.layer = layer;
+                key.version = _versions[layer];
+                key.durationMsec = durationMsec;
+                key.height = height;
+                key.index = index;
+                _tiles.put(key, tile);
+            }
+            canvas.drawBitmap(tile, (startMsec - minValue) * msecInPixels, top, null);
+        }
+    }
+
+    private Bitmap getTile(int layer, long durationMsec, int height, long index) {
+        _lookupKey.layer = layer;
+        _lookupKey.version = _versions[layer];
+        _lookupKey.durationMsec = durationMsec;
+        _lookupKey.height = height;
+        _lookupKey.index = index;
+        return _tiles.get(_lookupKey);
+    }
+
+}
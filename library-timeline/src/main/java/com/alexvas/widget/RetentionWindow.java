@@ -0,0 +1,98 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Range of layer records kept by TimelineView retention policy. Records farther than
+ * maxDistanceMsec from the selected time, or the farthest ones above maxRecords, are evicted
+ * in batches of whole data source pages. Does not depend on View, so the window can be
+ * computed and checked on its own.
+ */
+final class RetentionWindow {
+
+    // Limits, 0 for unlimited
+    int maxRecords = 0;
+    long maxDistanceMsec = 0;
+
+    // Records [from, to) of the index passed to compute() last are kept
+    int from;
+    int to;
+
+    boolean isEnabled() {
+        return maxRecords > 0 || maxDistanceMsec > 0;
+    }
+
+    /**
+     * Computes records to keep. Pages of evicted records are removed from loaded ranges,
+     * so they are requested from data source again when scrolled to.
+     * @param hasDataSource whether newer records can be requested again, otherwise they are kept
+     * @param pageMsec page duration of data source
+     * @return true if any records should be evicted
+     */
+    boolean compute(
+            @NonNull RecordIndex index,
+            long selectedMsec,
+            long intervalMsec,
+            boolean hasDataSource,
+            long pageMsec,
+            @NonNull LoadedRangeTracker loadedRanges) {
+        int size = index.size();
+        from = 0;
+        to = size;
+        if (size == 0 || !index.isSorted())
+            return false;
+
+        if (maxDistanceMsec > 0) {
+            long slackMsec = maxDistanceMsec / 4;
+            if (hasDataSource && index.getStart(0) > selectedMsec + maxDistanceMsec + slackMsec)
+                from = index.getFirstIndexStartedNotAfter(selectedMsec + maxDistanceMsec);
+            if (index.getStart(size - 1) < selectedMsec - maxDistanceMsec - slackMsec)
+                to = index.getFirstIndexStartedBefore(selectedMsec - maxDistanceMsec);
+        }
+        if (maxRecords > 0 && to - from > maxRecords + maxRecords / 4) {
+            if (hasDataSource) {
+                int center = Math.min(Math.max(index.getFirstIndexStartedNotAfter(selectedMsec), from), to);
+                int newTo = Math.min(to, Math.max(from, center - maxRecords / 2) + maxRecords);
+                from = Math.max(from, newTo - maxRecords);
+                to = newTo;
+            } else {
+                to = from + maxRecords;
+            }
+        }
+        // Keep visible records
+        from = Math.min(from, index.getFirstIndexStartedNotAfter(selectedMsec + intervalMsec / 2));
+        to = Math.max(to, index.getFirstIndexStartedBefore(selectedMsec - intervalMsec / 2));
+
+        // Evict whole data source pages, so evicted pages can be requested again as is
+        if (from > 0) {
+            // Newer records are evicted only with data source
+            long newestKeptMsec = (Math.floorDiv(index.getStart(from), pageMsec) + 1) * pageMsec - 1;
+            from = index.getFirstIndexStartedNotAfter(newestKeptMsec);
+            if (from > 0)
+                loadedRanges.remove(newestKeptMsec + 1, Long.MAX_VALUE);
+        }
+        if (to < size && to > from && hasDataSource) {
+            long oldestKeptMsec = Math.floorDiv(index.getStart(to - 1), pageMsec) * pageMsec;
+            to = index.getFirstIndexStartedBefore(oldestKeptMsec);
+            if (to < size)
+                loadedRanges.remove(Long.MIN_VALUE, oldestKeptMsec);
+        }
+        return from > 0 || to < size;
+    }
+
+    /**
+     * Reports records evicted by the last compute(), newer ones first. Reported ranges span
+     * starts of the evicted records, e.g. to invalidate their tiles.
+     */
+    void reportEvicted(
+            int layer,
+            @NonNull RecordIndex index,
+            @NonNull TimelineView.OnRecordsEvictedListener listener) {
+        int size = index.size();
+        if (from > 0)
+            listener.onRecordsEvicted(layer, index.getStart(from - 1), index.getStart(0), from);
+        if (to < size)
+            listener.onRecordsEvicted(layer, index.getStart(size - 1), index.getStart(to), size - to);
+    }
+
+}
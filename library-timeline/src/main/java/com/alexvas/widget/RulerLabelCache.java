@@ -0,0 +1,103 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Bounded LRU cache of formatted ruler labels with their measured size, keyed by tick timestamp
+ * and ruler granularity. Labels are stored in reusable char arrays, so lookups and evictions
+ * do not allocate.
+ */
+final class RulerLabelCache {
+
+    static final int CAPACITY = 64;
+
+    private final long[] _timestamps = new long[CAPACITY];
+    private final long[] _intervals = new long[CAPACITY];
+    private final long[] _lastUsed = new long[CAPACITY];
+    private final char[][] _labels = new char[CAPACITY][];
+    private final int[] _lengths = new int[CAPACITY];
+    private final int[] _widths = new int[CAPACITY];
+    private final int[] _heights = new int[CAPACITY];
+    private final boolean[] _isDate = new boolean[CAPACITY];
+    private int _size = 0;
+    private long _useCounter = 0;
+
+    /**
+     * Returns slot of the cached label or -1 if not found.
+     */
+    int find(long timestampMsec, long intervalMsec) {
+        for (int i = 0; i < _size; i++) {
+            if (_timestamps[i] == timestampMsec && _intervals[i] == intervalMsec) {
+                _lastUsed[i] = ++_useCounter;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores label evicting the least recently used one if cache is full.
+     * @return slot of the stored label
+     */
+    int put(long timestampMsec,
+            long intervalMsec,
+            @NonNull char[] label,
+            int length,
+            boolean isDate,
+            int width,
+            int height) {
+        int slot;
+        if (_size < CAPACITY) {
+            slot = _size++;
+        } else {
+            slot = 0;
+            for (int i = 1; i < CAPACITY; i++) {
+                if (_lastUsed[i] < _lastUsed[slot])
+                    slot = i;
+            }
+        }
+        char[] buffer = _labels[slot];
+        if (buffer == null || buffer.length < length) {
+            buffer = new char[Math.max(length, 16)];
+            _labels[slot] = buffer;
+        }
+        System.arraycopy(label, 0, buffer, 0, length);
+        _timestamps[slot] = timestampMsec;
+        _intervals[slot] = intervalMsec;
+        _lengths[slot] = length;
+        _isDate[slot] = isDate;
+        _widths[slot] = width;
+        _heights[slot] = height;
+        _lastUsed[slot] = ++_useCounter;
+        return slot;
+    }
+
+    void clear() {
+        _size = 0;
+        Arrays.fill(_lastUsed, 0);
+    }
+
+    @NonNull
+    char[] getLabel(int slot) {
+        return _labels[slot];
+    }
+
+    int getLength(int slot) {
+        return _lengths[slot];
+    }
+
+    boolean isDate(int slot) {
+        return _isDate[slot];
+    }
+
+    int getWidth(int slot) {
+        return _widths[slot];
+    }
+
+    int getHeight(int slot) {
+        return _heights[slot];
+    }
+
+}
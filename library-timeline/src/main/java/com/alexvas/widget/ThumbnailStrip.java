@@ -0,0 +1,259 @@
+package com.alexvas.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.CancellationSignal;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Row of thumbnails, one per time bucket having records. Thumbnails are loaded and scaled on
+ * the executor and kept in a byte-bounded LRU cache. Every bucket is loaded once at a time,
+ * requests scrolled out of view are canceled, and placeholders are drawn until thumbnails are
+ * loaded, so drawing never waits for loading.
+ */
+final class ThumbnailStrip {
+
+    // Bucket is the shortest one not narrower than a thumbnail at the current zoom
+    private static final long[] BUCKETS_MSEC = {
+            5 * 1000L,
+            10 * 1000L,
+            15 * 1000L,
+            30 * 1000L,
+            60 * 1000L,
+            2 * 60 * 1000L,
+            5 * 60 * 1000L
+    };
+
+    // Thumbnail aspect ratio
+    private static final int ASPECT_WIDTH = 16;
+    private static final int ASPECT_HEIGHT = 9;
+
+    // Buckets without thumbnails remembered, so they are not requested on every frame
+    private static final int MAX_MISSING = 256;
+
+    private static final class ThumbKey {
+        long bucketMsec;
+        long bucket;
+        int height;
+
+        ThumbKey() {
+        }
+
+        ThumbKey(@NonNull ThumbKey key) {
+            bucketMsec = key.bucketMsec;
+            bucket = key.bucket;
+            height = key.height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof ThumbKey))
+                return false;
+            ThumbKey key = (ThumbKey) o;
+            return bucketMsec == key.bucketMsec &&
+                   bucket == key.bucket &&
+                   height == key.height;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(bucketMsec);
+            result = 31 * result + Long.hashCode(bucket);
+            result = 31 * result + height;
+            return result;
+        }
+    }
+
+    private static final class Request {
+        @NonNull final ThumbKey key;
+        @NonNull final CancellationSignal signal = new CancellationSignal();
+
+        Request(@NonNull ThumbKey key) {
+            this.key = key;
+        }
+    }
+
+    private final TimelineThumbnailLoader _loader;
+    private final Executor _executor;
+    private final Executor _uiExecutor;
+    private final Runnable _onLoaded;
+    private final LruCache<ThumbKey, Bitmap> _thumbnails;
+    private final LruCache<ThumbKey, Boolean> _missing = new LruCache<>(MAX_MISSING);
+    // Accessed on UI thread only. Requests are iterated via list, so canceling does not allocate.
+    private final HashMap<ThumbKey, Request> _inFlight = new HashMap<>();
+    private final ArrayList<Request> _requests = new ArrayList<>();
+    // Reused for lookups, so drawing cached thumbnails does not allocate
+    private final ThumbKey _lookupKey = new ThumbKey();
+
+    /**
+     * @param uiExecutor executor running tasks on UI thread
+     * @param onLoaded called on UI thread when a thumbnail was loaded
+     */
+    ThumbnailStrip(
+            @NonNull TimelineThumbnailLoader loader,
+            @NonNull Executor executor,
+            @NonNull Executor uiExecutor,
+            int maxBytes,
+            @NonNull Runnable onLoaded) {
+        _loader = loader;
+        _executor = executor;
+        _uiExecutor = uiExecutor;
+        _onLoaded = onLoaded;
+        _thumbnails = new LruCache<ThumbKey, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(ThumbKey key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Draws thumbnails of buckets having layer records within [minValue, minValue + intervalMsec)
+     * in the vertical band [top, bottom). Loads missing thumbnails and cancels loading of
+     * thumbnails not visible anymore.
+     */
+    void draw(
+            @NonNull Canvas canvas,
+            @NonNull RecordLayer layer,
+            long minValue,
+            long intervalMsec,
+            int width,
+            int top,
+            int bottom,
+            @NonNull Paint placeholderPaint) {
+        int height = bottom - top;
+        if (width <= 0 || height <= 0)
+            return;
+        int thumbWidth = height * ASPECT_WIDTH / ASPECT_HEIGHT;
+        long bucketMsec = getBucketMsec(intervalMsec * thumbWidth / width);
+        float msecInPixels = width / (float) intervalMsec;
+        long first = Math.floorDiv(minValue, bucketMsec);
+        long last = Math.floorDiv(minValue + intervalMsec, bucketMsec);
+        cancelRequests(bucketMsec, height, first, last);
+
+        ThumbKey key = _lookupKey;
+        key.bucketMsec = bucketMsec;
+        key.height = height;
+        for (long bucket = first; bucket <= last; bucket++) {
+            long startMsec = bucket * bucketMsec;
+            if (!hasRecords(layer, startMsec, startMsec + bucketMsec))
+                continue;
+            key.bucket = bucket;
+            float left = (startMsec - minValue) * msecInPixels;
+            Bitmap thumbnail = _thumbnails.get(key);
+            if (thumbnail != null) {
+                canvas.drawBitmap(thumbnail, left, top, null);
+            } else if (_missing.get(key) == null) {
+                canvas.drawRect(left, top, left + thumbWidth, bottom, placeholderPaint);
+                if (!_inFlight.containsKey(key))
+                    request(new ThumbKey(key), thumbWidth);
+            }
+        }
+    }
+
+    /**
+     * Cancels all requests and drops loaded thumbnails.
+     */
+    void clear() {
+        for (int i = 0; i < _requests.size(); i++)
+            _requests.get(i).signal.cancel();
+        _requests.clear();
+        _inFlight.clear();
+        _thumbnails.evictAll();
+        _missing.evictAll();
+    }
+
+    /**
+     * Forgets buckets without thumbnails, so they are requested again, e.g. after records
+     * were changed.
+     */
+    void clearMissing() {
+        _missing.evictAll();
+    }
+
+    private void request(@NonNull ThumbKey key, int thumbWidth) {
+        final Request request = new Request(key);
+        _inFlight.put(key, request);
+        _requests.add(request);
+        _executor.execute(() -> {
+            Bitmap thumbnail = null;
+            if (!request.signal.isCanceled()) {
+                try {
+                    thumbnail = _loader.loadThumbnail(
+                            key.bucket * key.bucketMsec, key.bucketMsec, thumbWidth, key.height, request.signal);
+                } catch (RuntimeException e) {
+                    // Treated as missing thumbnail
+                }
+                if (thumbnail != null && (thumbnail.getWidth() != thumbWidth || thumbnail.getHeight() != key.height))
+                    thumbnail = Bitmap.createScaledBitmap(thumbnail, thumbWidth, key.height, true);
+            }
+            final Bitmap loaded = thumbnail;
+            _uiExecutor.execute(() -> onLoaded(request, loaded));
+        });
+    }
+
+    private void onLoaded(@NonNull Request request, @Nullable Bitmap thumbnail) {
+        if (_inFlight.get(request.key) == request) {
+            _inFlight.remove(request.key);
+            _requests.remove(request);
+        }
+        // Loaded thumbnail is kept even if request was canceled meanwhile
+        if (thumbnail != null) {
+            _thumbnails.put(request.key, thumbnail);
+            _onLoaded.run();
+        } else if (!request.signal.isCanceled()) {
+            _missing.put(request.key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Cancels requests of other zoom or size, or of buckets out of [first, last].
+     */
+    private void cancelRequests(long bucketMsec, int height, long first, long last) {
+        int size = _requests.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Request request = _requests.get(i);
+            ThumbKey key = request.key;
+            if (key.bucketMsec != bucketMsec || key.height != height || key.bucket < first || key.bucket > last) {
+                request.signal.cancel();
+                _inFlight.remove(key);
+            } else {
+                _requests.set(kept++, request);
+            }
+        }
+        for (int i = size - 1; i >= kept; i--)
+            _requests.remove(i);
+    }
+
+    private static long getBucketMsec(long minBucketMsec) {
+        for (long bucketMsec : BUCKETS_MSEC) {
+            if (bucketMsec >= minBucketMsec)
+                return bucketMsec;
+        }
+        return BUCKETS_MSEC[BUCKETS_MSEC.length - 1];
+    }
+
+    /**
+     * Returns whether any layer record overlaps [startMsec, endMsec).
+     */
+    private static boolean hasRecords(@NonNull RecordLayer layer, long startMsec, long endMsec) {
+        RecordIndex index = layer.index;
+        if (index.getContainingIndex(startMsec, false) >= 0)
+            return true;
+        // Suppose all records sorted
+        int i = index.getFirstIndexStartedBefore(endMsec);
+        return i < index.size() && index.getStart(i) >= startMsec;
+    }
+
+}
@@ -0,0 +1,473 @@
+package com.alexvas.widget;
+
+import android.annotation.SuppressLint;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.alexvas.widget.TimelineView.TimeRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar storage of time records without per-record objects.
+ * Keeps parallel arrays of timestamps, durations and colors (20 bytes per record).
+ * Records are expected to be sorted by timestamp in descending order (newest first).
+ * Store should not be modified after it was set to TimelineView, otherwise set it again.
+ */
+public class TimeRecordStore {
+
+    public interface PayloadProvider {
+        /**
+         * Returns object associated with record at the specified index, e.g. event ID.
+         */
+        @Nullable Object getPayload(int index);
+    }
+
+    private static final long MIN_DURATION_MSEC = 1500; // min 1.5 sec, same as TimeRecord
+
+    private long[] _timestamps;
+    private long[] _durations;
+    private int[] _colors;
+    // Position of the first record in arrays
+    private int _offset = 0;
+    private int _size = 0;
+    // Stable ID of the first record, IDs of the next ones follow. Kept when store is grown.
+    private int _firstId = 0;
+    // Set if arrays are shared by stores grown in place. Such stores copy arrays before
+    // being modified.
+    @Nullable private ArrayExtent _extent = null;
+    @Nullable private PayloadProvider _payloadProvider = null;
+    // Set if store was created from list of records. Returned as is by getRecord().
+    @Nullable private List<TimeRecord> _records = null;
+    // Set instead of _records if store with records was grown, parallel to other arrays
+    @Nullable private TimeRecord[] _recordArray = null;
+
+    public TimeRecordStore() {
+        this(16);
+    }
+
+    public TimeRecordStore(int capacity) {
+        _timestamps = new long[capacity];
+        _durations = new long[capacity];
+        _colors = new int[capacity];
+    }
+
+    /**
+     * Creates store from records. getRecord() returns the original records.
+     */
+    @NonNull
+    public static TimeRecordStore fromRecords(@NonNull List<TimeRecord> records) {
+        int size = records.size();
+        TimeRecordStore store = new TimeRecordStore(size);
+        for (int i = 0; i < size; i++) {
+            TimeRecord record = records.get(i);
+            store._timestamps[i] = record.timestampMsec;
+            store._durations[i] = record.durationMsec;
+            store._colors[i] = record.color;
+        }
+        store._size = size;
+        store._records = records;
+        return store;
+    }
+
+    /**
+     * Returns new store with records of both stores in descending order. Both stores should be
+     * sorted, on equal timestamps records of the first store go first. Original records are kept
+     * if both stores were created from lists of records, payload provider is not kept.
+     * Takes O(n), use grow() to add records not overlapping the store ones.
+     */
+    @NonNull
+    static TimeRecordStore merge(@NonNull TimeRecordStore first, @NonNull TimeRecordStore second) {
+        boolean hasRecords = checkSameKind(first, second);
+        if (!first.isEmpty() && !second.isEmpty() &&
+            second.getTimestampMsec(second._size - 1) > first.getTimestampMsec(0)) {
+            // All records of the second store are newer
+            TimeRecordStore tmp = first;
+            first = second;
+            second = tmp;
+        }
+
+        int size = first._size + second._size;
+        TimeRecordStore store = new TimeRecordStore(size);
+        ArrayList<TimeRecord> records = hasRecords ? new ArrayList<>(size) : null;
+        if (first.isEmpty() || second.isEmpty() ||
+            first.getTimestampMsec(first._size - 1) >= second.getTimestampMsec(0)) {
+            // Records of the first store are not older than the second ones, just concatenate
+            store.copyFrom(first, 0, 0, first._size);
+            store.copyFrom(second, 0, first._size, second._size);
+            if (records != null) {
+                first.addRecordsTo(records);
+                second.addRecordsTo(records);
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < size; k++) {
+                boolean fromFirst = j == second._size ||
+                        (i < first._size && first.getTimestampMsec(i) >= second.getTimestampMsec(j));
+                TimeRecordStore from = fromFirst ? first : second;
+                int index = fromFirst ? i++ : j++;
+                store.copyFrom(from, index, k, 1);
+                if (records != null)
+                    records.add(from.getRecord(index));
+            }
+        }
+        store._size = size;
+        store._records = records;
+        return store;
+    }
+
+    /**
+     * Returns store with records of this store followed by the added ones if older is set,
+     * otherwise preceded by them. Added records should not overlap this store ones in
+     * descending order. Arrays are shared with this store and only added records are copied
+     * if there is room, otherwise arrays are grown with room for further records, so adding
+     * k records takes amortized O(k). Stores created by the app are never written in place.
+     * Original records are kept, payload provider is not kept.
+     */
+    @NonNull
+    TimeRecordStore grow(@NonNull TimeRecordStore added, boolean older) {
+        boolean hasRecords = checkSameKind(this, added);
+        int count = added._size;
+        TimeRecordStore store = new TimeRecordStore(0);
+        store._size = _size + count;
+        store._firstId = older ? _firstId : _firstId - count;
+        ArrayExtent extent = _extent;
+        boolean claimed = extent != null && (older ?
+                extent.claimHigh(_offset + _size, count, _timestamps.length) :
+                extent.claimLow(_offset, count));
+        if (claimed) {
+            store._timestamps = _timestamps;
+            store._durations = _durations;
+            store._colors = _colors;
+            store._recordArray = _recordArray;
+            store._extent = extent;
+            store._offset = older ? _offset : _offset - count;
+        } else {
+            // Room for as many records again at the growing side, room at the other side is kept
+            // if this store may still grow there
+            int room = Math.max(16, store._size >> 1);
+            int lowRoom = !older ? room : extent != null ? extent.getLowRoom(_offset) : 0;
+            int highRoom = older ? room : extent != null ? extent.getHighRoom(_offset + _size, _timestamps.length) : 0;
+            int capacity = lowRoom + count + _size + highRoom;
+            store._timestamps = new long[capacity];
+            store._durations = new long[capacity];
+            store._colors = new int[capacity];
+            store._offset = lowRoom + (older ? 0 : count);
+            store.copyFrom(this, 0, 0, _size);
+            store._offset = lowRoom;
+            store._extent = new ArrayExtent(lowRoom, lowRoom + store._size);
+            if (hasRecords && !isEmpty()) {
+                store._recordArray = new TimeRecord[capacity];
+                for (int i = 0; i < _size; i++)
+                    store._recordArray[lowRoom + (older ? 0 : count) + i] = getRecord(i);
+            }
+        }
+        int addedOffset = older ? _size : 0;
+        store.copyFrom(added, 0, addedOffset, count);
+        if (hasRecords) {
+            if (store._recordArray == null)
+                store._recordArray = new TimeRecord[store._timestamps.length];
+            for (int i = 0; i < count; i++)
+                store._recordArray[store._offset + addedOffset + i] = added.getRecord(i);
+        }
+        return store;
+    }
+
+    /**
+     * Returns whether stores both have records or both do not, empty stores are of any kind.
+     * @throws IllegalStateException if they are of different kinds
+     */
+    private static boolean checkSameKind(@NonNull TimeRecordStore first, @NonNull TimeRecordStore second) {
+        boolean firstHasRecords = first.hasRecords() || first.isEmpty();
+        boolean secondHasRecords = second.hasRecords() || second.isEmpty();
+        if (firstHasRecords != secondHasRecords)
+            throw new IllegalStateException("Cannot merge stores with and without list of records");
+        return firstHasRecords && (first.hasRecords() || second.hasRecords());
+    }
+
+    private boolean hasRecords() {
+        return _records != null || _recordArray != null;
+    }
+
+    private void addRecordsTo(@NonNull ArrayList<TimeRecord> records) {
+        for (int i = 0; i < _size; i++)
+            records.add(getRecord(i));
+    }
+
+    /**
+     * Returns whether the store shares arrays with the other one, i.e. was grown in place.
+     */
+    boolean sharesArrays(@NonNull TimeRecordStore store) {
+        return _timestamps == store._timestamps;
+    }
+
+    /**
+     * Returns new store with records [fromIndex, toIndex) of this store.
+     * Original records and payloads are kept.
+     */
+    @NonNull
+    TimeRecordStore slice(int fromIndex, int toIndex) {
+        int size = toIndex - fromIndex;
+        TimeRecordStore store = new TimeRecordStore(size);
+        store.copyFrom(this, fromIndex, 0, size);
+        store._size = size;
+        store._firstId = _firstId + fromIndex;
+        if (hasRecords()) {
+            ArrayList<TimeRecord> records = new ArrayList<>(size);
+            for (int i = fromIndex; i < toIndex; i++)
+                records.add(getRecord(i));
+            store._records = records;
+        }
+        PayloadProvider provider = _payloadProvider;
+        if (provider != null)
+            store._payloadProvider = index -> provider.getPayload(index + fromIndex);
+        return store;
+    }
+
+    /**
+     * Returns index of the first record started later than the previous one, or -1 if records
+     * are sorted in descending order.
+     */
+    int findFirstUnsorted() {
+        for (int i = 1; i < _size; i++) {
+            if (_timestamps[_offset + i - 1] < _timestamps[_offset + i])
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns new store with records sorted by timestamp in descending order. Records with
+     * equal timestamps keep their order. Original records and payloads are kept.
+     * @param parallel whether to sort on multiple threads, requires API 24
+     */
+    @NonNull
+    TimeRecordStore sortDescending(boolean parallel) {
+        int[] order = getDescendingOrder(parallel);
+        TimeRecordStore store = new TimeRecordStore(_size);
+        for (int i = 0; i < _size; i++) {
+            int index = _offset + order[i];
+            store._timestamps[i] = _timestamps[index];
+            store._durations[i] = _durations[index];
+            store._colors[i] = _colors[index];
+        }
+        store._size = _size;
+        if (hasRecords()) {
+            ArrayList<TimeRecord> sorted = new ArrayList<>(_size);
+            for (int i = 0; i < _size; i++)
+                sorted.add(getRecord(order[i]));
+            store._records = sorted;
+        }
+        PayloadProvider provider = _payloadProvider;
+        if (provider != null)
+            store._payloadProvider = index -> provider.getPayload(order[index]);
+        return store;
+    }
+
+    /**
+     * Returns record indexes in descending order of their timestamps, stable.
+     */
+    // Parallel sort is requested on API 24+ only
+    @SuppressLint("NewApi")
+    @NonNull
+    private int[] getDescendingOrder(boolean parallel) {
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < _size; i++) {
+            minTimestamp = Math.min(minTimestamp, getTimestampMsec(i));
+            maxTimestamp = Math.max(maxTimestamp, getTimestampMsec(i));
+        }
+        int[] order = new int[_size];
+        int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, _size - 1));
+        long range = maxTimestamp - minTimestamp;
+        if (range >= 0 && range < (1L << (63 - indexBits))) {
+            // Sort primitive keys, distance from the newest record followed by record index
+            long[] keys = new long[_size];
+            for (int i = 0; i < _size; i++)
+                keys[i] = ((maxTimestamp - getTimestampMsec(i)) << indexBits) | i;
+            if (parallel)
+                Arrays.parallelSort(keys);
+            else
+                Arrays.sort(keys);
+            long indexMask = (1L << indexBits) - 1;
+            for (int i = 0; i < _size; i++)
+                order[i] = (int) (keys[i] & indexMask);
+        } else {
+            Integer[] boxed = new Integer[_size];
+            for (int i = 0; i < _size; i++)
+                boxed[i] = i;
+            Arrays.sort(boxed, (first, second) -> Long.compare(getTimestampMsec(second), getTimestampMsec(first)));
+            for (int i = 0; i < _size; i++)
+                order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    private void copyFrom(@NonNull TimeRecordStore from, int fromIndex, int toIndex, int length) {
+        System.arraycopy(from._timestamps, from._offset + fromIndex, _timestamps, _offset + toIndex, length);
+        System.arraycopy(from._durations, from._offset + fromIndex, _durations, _offset + toIndex, length);
+        System.arraycopy(from._colors, from._offset + fromIndex, _colors, _offset + toIndex, length);
+    }
+
+    /**
+     * Copies records to own arrays starting at 0, so they can be modified.
+     */
+    private void detach() {
+        if (_extent == null && _offset == 0)
+            return;
+        TimeRecordStore copy = new TimeRecordStore(_size);
+        copy.copyFrom(this, 0, 0, _size);
+        _timestamps = copy._timestamps;
+        _durations = copy._durations;
+        _colors = copy._colors;
+        _offset = 0;
+        _extent = null;
+        if (_recordArray != null) {
+            ArrayList<TimeRecord> records = new ArrayList<>(_size);
+            addRecordsTo(records);
+            _records = records;
+            _recordArray = null;
+        }
+    }
+
+    /**
+     * @param durationMsec can be 0 if unknown
+     */
+    public void add(long timestampMsec, long durationMsec) {
+        add(timestampMsec, durationMsec, -1);
+    }
+
+    /**
+     * @param durationMsec can be 0 if unknown
+     * @param color color to draw record with, -1 for default one
+     */
+    public void add(long timestampMsec, long durationMsec, @ColorInt int color) {
+        if (hasRecords())
+            throw new IllegalStateException("Store created from list of records cannot be modified");
+        ensureCapacity(_size + 1);
+        _timestamps[_size] = timestampMsec;
+        _durations[_size] = Math.max(MIN_DURATION_MSEC, durationMsec);
+        _colors[_size] = color;
+        _size++;
+    }
+
+    public void ensureCapacity(int capacity) {
+        detach();
+        if (capacity > _timestamps.length) {
+            int newCapacity = Math.max(capacity, _timestamps.length + (_timestamps.length >> 1) + 1);
+            _timestamps = Arrays.copyOf(_timestamps, newCapacity);
+            _durations = Arrays.copyOf(_durations, newCapacity);
+            _colors = Arrays.copyOf(_colors, newCapacity);
+        }
+    }
+
+    public void trimToSize() {
+        detach();
+        if (_size < _timestamps.length) {
+            _timestamps = Arrays.copyOf(_timestamps, _size);
+            _durations = Arrays.copyOf(_durations, _size);
+            _colors = Arrays.copyOf(_colors, _size);
+        }
+    }
+
+    public void clear() {
+        if (hasRecords())
+            throw new IllegalStateException("Store created from list of records cannot be modified");
+        detach();
+        _size = 0;
+    }
+
+    public void setPayloadProvider(@Nullable PayloadProvider provider) {
+        _payloadProvider = provider;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    public long getTimestampMsec(int index) {
+        return _timestamps[_offset + index];
+    }
+
+    public long getDurationMsec(int index) {
+        return _durations[_offset + index];
+    }
+
+    public long getEndMsec(int index) {
+        return _timestamps[_offset + index] + _durations[_offset + index];
+    }
+
+    @ColorInt
+    public int getColor(int index) {
+        return _colors[_offset + index];
+    }
+
+    @Nullable
+    public Object getPayload(int index) {
+        if (hasRecords())
+            return getRecord(index).object;
+        return _payloadProvider != null ? _payloadProvider.getPayload(index) : null;
+    }
+
+    /**
+     * Returns record at the specified index. If store was not created from list of records,
+     * new record is created. Its object is the payload or, if there is no payload, record index.
+     */
+    @NonNull
+    public TimeRecord getRecord(int index) {
+        if (_recordArray != null)
+            return _recordArray[_offset + index];
+        if (_records != null)
+            return _records.get(index);
+        Object payload = getPayload(index);
+        return new TimeRecord(
+                getTimestampMsec(index),
+                getDurationMsec(index),
+                payload != null ? payload : index,
+                getColor(index));
+    }
+
+    /**
+     * Returns list of records the store was created from, view of records of the grown store
+     * or null if store was not created from records.
+     */
+    @Nullable
+    List<TimeRecord> getRecords() {
+        if (_recordArray != null)
+            return Arrays.asList(_recordArray).subList(_offset, _offset + _size);
+        return _records;
+    }
+
+    /**
+     * Returns ID of the record. IDs are kept when store is grown, so they identify records
+     * of all grown stores, index of the record is getId() - getId(0) of the store.
+     */
+    int getId(int index) {
+        return _firstId + index;
+    }
+
+    // Direct access for index code. Records start at getOffset() and arrays may be longer.
+    @NonNull
+    long[] getTimestamps() {
+        return _timestamps;
+    }
+
+    @NonNull
+    long[] getDurations() {
+        return _durations;
+    }
+
+    int getOffset() {
+        return _offset;
+    }
+
+}
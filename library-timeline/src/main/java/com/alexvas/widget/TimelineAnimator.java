@@ -0,0 +1,138 @@
+package com.alexvas.widget;
+
+/**
+ * State of pan, fling and zoom animations of the timeline. Selected time and interval are
+ * interpolated in long precision, so animations are exact at any zoom level. Does not depend
+ * on View, the view steps it once per frame and applies animated values.
+ */
+final class TimelineAnimator {
+
+    // Kinds of the selected time animation
+    static final int TIME_NONE  = 0;
+    static final int TIME_PAN   = 1;
+    static final int TIME_FLING = 2;
+
+    // Flags returned by step()
+    static final int ANIMATED_TIME     = 1;
+    static final int ANIMATED_INTERVAL = 2;
+
+    private static final float FLING_DECELERATION = 1.4f;
+
+    private static final class Channel {
+        int kind = TIME_NONE;
+        long fromValue;
+        long deltaValue;
+        long startMsec;
+        long durationMsec;
+        long value;
+
+        void start(int kind, long fromValue, long deltaValue, long startMsec, long durationMsec) {
+            this.kind = kind;
+            this.fromValue = fromValue;
+            this.deltaValue = deltaValue;
+            this.startMsec = startMsec;
+            this.durationMsec = Math.max(1, durationMsec);
+            this.value = fromValue;
+        }
+
+        /**
+         * Updates value and stops channel if its end is reached.
+         * @return true if channel was running
+         */
+        boolean step(long nowMsec) {
+            if (kind == TIME_NONE)
+                return false;
+            double fraction = Math.min(1.0, Math.max(0, nowMsec - startMsec) / (double) durationMsec);
+            if (fraction >= 1.0) {
+                // Exactly at the target, deltas over 2^53 are not exact in double
+                value = fromValue + deltaValue;
+                kind = TIME_NONE;
+            } else {
+                value = fromValue + Math.round(interpolate(kind, fraction) * deltaValue);
+            }
+            return true;
+        }
+    }
+
+    private final Channel _time = new Channel();
+    private final Channel _interval = new Channel();
+
+    /**
+     * Smoothly moves selected time to the specified one.
+     */
+    void startPan(long fromMsec, long toMsec, long nowMsec, long durationMsec) {
+        _time.start(TIME_PAN, fromMsec, toMsec - fromMsec, nowMsec, durationMsec);
+    }
+
+    /**
+     * Moves selected time by the specified offset decelerating.
+     */
+    void startFling(long fromMsec, long offsetMsec, long nowMsec, long durationMsec) {
+        _time.start(TIME_FLING, fromMsec, offsetMsec, nowMsec, durationMsec);
+    }
+
+    /**
+     * Smoothly changes interval to the specified one.
+     */
+    void startZoom(long fromIntervalMsec, long toIntervalMsec, long nowMsec, long durationMsec) {
+        // Any kind except none, interval uses the same curve as pan
+        _interval.start(TIME_PAN, fromIntervalMsec, toIntervalMsec - fromIntervalMsec, nowMsec, durationMsec);
+    }
+
+    void cancelTime() {
+        _time.kind = TIME_NONE;
+    }
+
+    void cancelZoom() {
+        _interval.kind = TIME_NONE;
+    }
+
+    void cancel() {
+        cancelTime();
+        cancelZoom();
+    }
+
+    boolean isRunning() {
+        return _time.kind != TIME_NONE || _interval.kind != TIME_NONE;
+    }
+
+    int getTimeKind() {
+        return _time.kind;
+    }
+
+    boolean isZooming() {
+        return _interval.kind != TIME_NONE;
+    }
+
+    /**
+     * Advances animations to the specified time. Animations reaching their end are stopped
+     * after their last value is computed.
+     * @return ANIMATED_* flags of values changed
+     */
+    int step(long nowMsec) {
+        int animated = 0;
+        if (_time.step(nowMsec))
+            animated |= ANIMATED_TIME;
+        if (_interval.step(nowMsec))
+            animated |= ANIMATED_INTERVAL;
+        return animated;
+    }
+
+    long getTimeMsec() {
+        return _time.value;
+    }
+
+    long getIntervalMsec() {
+        return _interval.value;
+    }
+
+    private static double interpolate(int kind, double fraction) {
+        if (kind == TIME_FLING) {
+            // Same curve as DecelerateInterpolator
+            return 1.0 - Math.pow(1.0 - fraction, 2 * FLING_DECELERATION);
+        }
+        // Same curve as AccelerateDecelerateInterpolator
+        return Math.cos((fraction + 1) * Math.PI) / 2.0 + 0.5;
+    }
+
+}
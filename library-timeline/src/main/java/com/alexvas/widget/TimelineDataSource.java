@@ -0,0 +1,15 @@
+package com.alexvas.widget;
+
+/**
+ * Source of records queried by TimelineView with explicit time ranges.
+ * Ranges are aligned to the page size set via TimelineView.setDataSource(), every range is
+ * requested only once until TimelineView.resetLoadedRanges() is called.
+ * Loaded records are expected to be added via TimelineView.appendOlder() or appendNewer().
+ */
+public interface TimelineDataSource {
+    /**
+     * Called on UI thread when records of [fromMsec, toMsec) range are needed.
+     * @param layer one of TimelineView.LAYER_MAJOR1, LAYER_MAJOR2 or LAYER_BACKGROUND
+     */
+    void onRequestRecords(int layer, long fromMsec, long toMsec);
+}
@@ -0,0 +1,507 @@
+package com.alexvas.widget;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Projection of records to rectangles for the specified time window and view size.
+ * Does not depend on View, so it can be computed on a background thread. Input fields are
+ * set by the view, layout() fills output fields.
+ */
+final class TimelineLayout {
+
+    static final int SELECTED_NONE          = 0;
+    static final int SELECTED_END_EXCLUSIVE = 1;
+    static final int SELECTED_END_INCLUSIVE = 2;
+
+    // Number of built-in layers, their tracks have IDs below it
+    private static final int LAYERS = 3;
+
+    static class DrawRect {
+        public int left;
+        public int top;
+        public int right;
+        public int bottom;
+        @ColorInt int color = -1;
+        public DrawRect() {}
+        public DrawRect(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+        public void set(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+    }
+
+    /**
+     * Rectangles of a single track.
+     */
+    static final class TrackRects {
+        final ArrayList<DrawRect> rects = new ArrayList<>();
+        // Rectangle of the record containing selected time, not added to rects
+        @Nullable DrawRect selected = null;
+        // Whether rects are runs of heatmap buckets with the same level, all of them have color set
+        boolean heatmap = false;
+        // Vertical band of the track in pixels
+        int top = 0;
+        int bottom = 0;
+    }
+
+    // Input
+    long selectedMsec = 0;
+    long intervalMsec = TimelineView.INTERVAL_HOUR_1;
+    long nowMsec = 0;
+    int width = 0;
+    int height = 0;
+    int offsetNoData = 0;
+    // Half width of the line drawn on the left side of rectangles of tracks with FLAG_LEFT_LINE
+    int lineHalfWidth = 0;
+    boolean binarySearchCulling = false;
+    boolean levelOfDetail = false;
+    // Whether layers are drawn from their coverage pyramids at intervals where pyramid buckets
+    // are not wider than a pixel
+    boolean coveragePyramid = false;
+    // If not set, rectangle lists of tracks with FLAG_TILES are left empty and only selected
+    // rectangles are computed
+    boolean buildRects = true;
+    // Built-in layers and additional tracks sorted by z-order
+    @NonNull TimelineTrack[] tracks = TimelineTrack.NONE;
+    // Track with FLAG_HEATMAP is drawn as density heatmap at intervals not shorter than this one,
+    // 0 to disable
+    long heatmapMinIntervalMsec = 0;
+    // Colors of heatmap levels from the lowest density to the highest one
+    @NonNull int[] heatmapColors = new int[0];
+
+    // Output
+    // Rectangles of every track, in the same order as tracks
+    TrackRects[] trackRects = new TrackRects[0];
+    // Number of projected records (or coverage buckets) per layer, all tracks are counted last
+    final int[] visibleRecords = new int[LAYERS + 1];
+    final DrawRect rectNoData = new DrawRect();
+    // Whether the oldest record of the layer is newer than the visible window start
+    final boolean[] needMoreData = new boolean[LAYERS];
+
+    // Rectangles are reused between layouts, so layout does not allocate once pool is big enough
+    private final ArrayList<DrawRect> _rectPool = new ArrayList<>();
+    private int _rectPoolUsed = 0;
+
+    // State of the previous layout used for pan-only updates, per track position
+    private long _prevSelectedMsec = 0;
+    private long _prevIntervalMsec = 0;
+    private int _prevWidth = 0;
+    private RecordLayer[] _prevLayers = new RecordLayer[LAYERS];
+    private int[] _prevStartIndexes = new int[LAYERS];
+    private int[] _prevEndIndexes = new int[LAYERS];
+    private boolean _panOnly = false;
+    private final DensityHeatmap _heatmap = new DensityHeatmap();
+
+    void layout() {
+        _rectPoolUsed = 0;
+        Arrays.fill(visibleRecords, 0);
+        Arrays.fill(needMoreData, false);
+
+        long minValue = selectedMsec - intervalMsec / 2;
+        long maxValue = selectedMsec + intervalMsec / 2;
+        float msecInPixels = width / (float)intervalMsec;
+        // Time shifted by less than the visible interval at the same zoom, so visible records
+        // are found by moving previous visible range instead of searching or scanning all records.
+        _panOnly = intervalMsec == _prevIntervalMsec &&
+                   width == _prevWidth &&
+                   Math.abs(selectedMsec - _prevSelectedMsec) <= intervalMsec;
+        _prevSelectedMsec = selectedMsec;
+        _prevIntervalMsec = intervalMsec;
+        _prevWidth = width;
+
+        rectNoData.set(
+                0, // left
+                offsetNoData, // top
+                Math.min((int)((nowMsec - minValue) * msecInPixels), width), // right
+                height - offsetNoData); // bottom
+
+        boolean heatmap = heatmapMinIntervalMsec > 0 && intervalMsec >= heatmapMinIntervalMsec &&
+                          heatmapColors.length > 0 && width > 0;
+
+        // All tracks are culled and projected in a single pass in z-order
+        ensureSlots(tracks.length);
+        for (int i = 0; i < tracks.length; i++) {
+            TimelineTrack track = tracks[i];
+            TrackRects out = trackRects[i];
+            out.rects.clear();
+            out.top = (int) (track.bandTop * height) + track.bandInset;
+            out.bottom = (int) (track.bandBottom * height) - track.bandInset;
+            out.heatmap = heatmap && track.hasFlag(TimelineTrack.FLAG_HEATMAP);
+            if (out.heatmap) {
+                _prevLayers[i] = null;
+                convertDensityToRects(track, out.rects, out.top, out.bottom, minValue, maxValue, msecInPixels);
+                out.selected = getSelectedRect(
+                        track.layer, track.selectedMode, out.top, out.bottom, minValue, msecInPixels);
+            } else {
+                out.selected = convertRecordsToRects(
+                        i, track, out.rects, out.top, out.bottom, minValue, maxValue, msecInPixels);
+            }
+            if (track.id < LAYERS)
+                needMoreData[track.id] = isOldestRecordNewer(track.layer.store, minValue);
+        }
+    }
+
+    private void ensureSlots(int slots) {
+        if (_prevLayers.length < slots) {
+            _prevLayers = Arrays.copyOf(_prevLayers, slots);
+            _prevStartIndexes = Arrays.copyOf(_prevStartIndexes, slots);
+            _prevEndIndexes = Arrays.copyOf(_prevEndIndexes, slots);
+        }
+        if (trackRects.length < slots) {
+            int size = trackRects.length;
+            trackRects = Arrays.copyOf(trackRects, slots);
+            for (int i = size; i < slots; i++)
+                trackRects[i] = new TrackRects();
+        }
+    }
+
+    private static boolean isOldestRecordNewer(@NonNull TimeRecordStore store, long minValue) {
+        // Get the last record (oldest one)
+        return store.size() > 0 && minValue < store.getTimestampMsec(store.size() - 1);
+    }
+
+    /**
+     * Converts visible records of the track to rectangles.
+     * @param slot track position to keep its visible range for the next layout
+     * @return rectangle of the selected record, not added to the rects list
+     */
+    @Nullable
+    private DrawRect convertRecordsToRects(
+            int slot,
+            @NonNull TimelineTrack track,
+            @NonNull ArrayList<DrawRect> rects,
+            int top,
+            int bottom,
+            long minValue,
+            long maxValue,
+            float msecInPixels) {
+
+        RecordLayer layer = track.layer;
+        int selectedMode = track.selectedMode;
+        if (!buildRects && track.hasFlag(TimelineTrack.FLAG_TILES)) {
+            _prevLayers[slot] = null;
+            return getSelectedRect(layer, selectedMode, top, bottom, minValue, msecInPixels);
+        }
+
+        // Covered spans are drawn from bitset if its bucket is not wider than a pixel
+        CoverageBitset coverage = layer.coverage;
+        if (coverage != null && selectedMode == SELECTED_NONE && coverage.getBucketMsec() * msecInPixels <= 1f) {
+            _prevLayers[slot] = null;
+            convertBitsetToRects(track, coverage, rects, top, bottom, minValue, maxValue, msecInPixels);
+            return null;
+        }
+
+        int level = coveragePyramid && layer.pyramid != null ? layer.pyramid.getLevel(1 / msecInPixels) : -1;
+        if (level >= 0) {
+            _prevLayers[slot] = null;
+            return convertCoverageToRects(track, level, rects, top, bottom, minValue, maxValue, msecInPixels);
+        }
+
+        boolean search = track.hasFlag(TimelineTrack.FLAG_SEARCH);
+        int lineHalfWidth = track.hasFlag(TimelineTrack.FLAG_LEFT_LINE) ? this.lineHalfWidth : 0;
+        boolean recordColors = track.hasFlag(TimelineTrack.FLAG_RECORD_COLORS);
+        TimeRecordStore store = layer.store;
+        RecordIndex index = layer.index;
+        DrawRect rectSelected = null;
+        int visible = 0;
+        // Records [startIndex, endIndex) started within the window, older records overlapping
+        // it are found via index
+        int startIndex;
+        int endIndex;
+        if (_panOnly && _prevLayers[slot] == layer && index.isSorted()) {
+            startIndex = moveFirstIndexStartedNotAfter(index, _prevStartIndexes[slot], maxValue);
+            endIndex = Math.max(moveFirstIndexStartedBefore(index, _prevEndIndexes[slot], minValue), startIndex);
+        } else {
+            startIndex = getFirstVisibleIndex(index, maxValue, search);
+            endIndex = getVisibleEndIndex(index, minValue, startIndex, search);
+        }
+        if (index.isSorted()) {
+            _prevLayers[slot] = layer;
+            _prevStartIndexes[slot] = startIndex;
+            _prevEndIndexes[slot] = endIndex;
+        } else {
+            _prevLayers[slot] = null;
+        }
+        for (int i = getNextVisibleIndex(index, startIndex, endIndex, minValue);
+             i != -1;
+             i = getNextVisibleIndex(index, i + 1, endIndex, minValue)) {
+            long timestampMsec = store.getTimestampMsec(i);
+            long durationMsec = store.getDurationMsec(i);
+            if ((timestampMsec + durationMsec) >= minValue &&
+                (timestampMsec) <= maxValue) {
+
+                visible++;
+                DrawRect rect = obtainRect(
+                        Math.max((int) ((timestampMsec - minValue) * msecInPixels), 0), // left
+                        top,
+                        Math.min((int) ((timestampMsec - minValue + durationMsec) * msecInPixels), width), // right
+                        bottom);
+
+                if (rectSelected == null &&
+                    selectedMode != SELECTED_NONE &&
+                    selectedMsec >= timestampMsec &&
+                    (selectedMsec < (timestampMsec + durationMsec) ||
+                     (selectedMode == SELECTED_END_INCLUSIVE && selectedMsec == (timestampMsec + durationMsec)))) {
+
+                    rectSelected = rect;
+                } else {
+                    if (recordColors)
+                        rect.color = store.getColor(i);
+                    addRect(rects, rect, lineHalfWidth, levelOfDetail);
+                }
+            }
+        }
+        visibleRecords[Math.min(track.id, LAYERS)] += visible;
+        return rectSelected;
+    }
+
+    /**
+     * Converts visible coverage pyramid buckets to rectangles. Touching rectangles are always merged.
+     * Selected record is searched via index and is drawn on top of buckets.
+     */
+    @Nullable
+    private DrawRect convertCoverageToRects(
+            @NonNull TimelineTrack track,
+            int level,
+            @NonNull ArrayList<DrawRect> rects,
+            int top,
+            int bottom,
+            long minValue,
+            long maxValue,
+            float msecInPixels) {
+
+        RecordLayer layer = track.layer;
+        int lineHalfWidth = track.hasFlag(TimelineTrack.FLAG_LEFT_LINE) ? this.lineHalfWidth : 0;
+        boolean recordColors = track.hasFlag(TimelineTrack.FLAG_RECORD_COLORS);
+        TimeRecordStore store = layer.store;
+        CoveragePyramid pyramid = layer.pyramid;
+        //noinspection ConstantConditions
+        int size = pyramid.size(level);
+        long bucketMsec = CoveragePyramid.getBucketMsec(level);
+        long minBucket = Math.floorDiv(minValue, bucketMsec);
+        for (int i = pyramid.getFirstIndexNotAfter(level, Math.floorDiv(maxValue, bucketMsec)); i < size; i++) {
+            long bucket = pyramid.getBucket(level, i);
+            if (bucket < minBucket)
+                break;
+            long timestampMsec = bucket * bucketMsec;
+            DrawRect rect = obtainRect(
+                    Math.max((int) ((timestampMsec - minValue) * msecInPixels), 0), // left
+                    top,
+                    Math.min((int) ((timestampMsec - minValue + bucketMsec) * msecInPixels), width), // right
+                    bottom);
+            if (recordColors)
+                rect.color = store.getColor(pyramid.getLastIndex(level, i));
+            addRect(rects, rect, lineHalfWidth, true);
+            visibleRecords[Math.min(track.id, LAYERS)]++;
+        }
+        return getSelectedRect(layer, track.selectedMode, top, bottom, minValue, msecInPixels);
+    }
+
+    /**
+     * Converts visible runs of covered bitset buckets to rectangles, so overlapping and touching
+     * records become a single rectangle.
+     */
+    private void convertBitsetToRects(
+            @NonNull TimelineTrack track,
+            @NonNull CoverageBitset coverage,
+            @NonNull ArrayList<DrawRect> rects,
+            int top,
+            int bottom,
+            long minValue,
+            long maxValue,
+            float msecInPixels) {
+        long timestampMsec = coverage.getNextCoverageMsec(minValue);
+        while (timestampMsec != -1 && timestampMsec <= maxValue) {
+            long endMsec = coverage.getNextGapMsec(timestampMsec);
+            DrawRect rect = obtainRect(
+                    Math.max((int) ((timestampMsec - minValue) * msecInPixels), 0), // left
+                    top,
+                    Math.min((int) ((endMsec - minValue) * msecInPixels), width), // right
+                    bottom);
+            addRect(rects, rect, 0, true);
+            visibleRecords[Math.min(track.id, LAYERS)]++;
+            timestampMsec = coverage.getNextCoverageMsec(endMsec);
+        }
+    }
+
+    /**
+     * Converts number of records overlapping every pixel wide bucket to heatmap rectangles, one per run
+     * of buckets with the same level. Bucket size depends on zoom only, so counts are reused
+     * while panning.
+     */
+    private void convertDensityToRects(
+            @NonNull TimelineTrack track,
+            @NonNull ArrayList<DrawRect> rects,
+            int top,
+            int bottom,
+            long minValue,
+            long maxValue,
+            float msecInPixels) {
+        long bucketMsec = Math.max(1, (intervalMsec + width - 1) / width);
+        long firstBucket = Math.floorDiv(minValue, bucketMsec);
+        int size = (int) (Math.floorDiv(maxValue, bucketMsec) - firstBucket + 1);
+        _heatmap.update(track.layer, bucketMsec, firstBucket, size);
+        int maxLevel = heatmapColors.length;
+        int runStart = 0;
+        int runLevel = 0;
+        for (int i = 0; i <= size; i++) {
+            int level = i < size ? DensityHeatmap.getLevel(_heatmap.getCount(i), maxLevel) : -1;
+            if (level == runLevel)
+                continue;
+            if (runLevel > 0) {
+                long startMsec = (firstBucket + runStart) * bucketMsec;
+                long endMsec = (firstBucket + i) * bucketMsec;
+                DrawRect rect = obtainRect(
+                        Math.max((int) ((startMsec - minValue) * msecInPixels), 0), // left
+                        top,
+                        Math.min((int) ((endMsec - minValue) * msecInPixels), width), // right
+                        bottom);
+                rect.color = heatmapColors[runLevel - 1];
+                rects.add(rect);
+                visibleRecords[Math.min(track.id, LAYERS)] += i - runStart;
+            }
+            runStart = i;
+            runLevel = level;
+        }
+    }
+
+    /**
+     * Returns rectangle of the record containing selected time found via index.
+     */
+    @Nullable
+    private DrawRect getSelectedRect(
+            @NonNull RecordLayer layer,
+            int selectedMode,
+            int top,
+            int bottom,
+            long minValue,
+            float msecInPixels) {
+        if (selectedMode == SELECTED_NONE)
+            return null;
+        int selected = layer.index.getContainingIndex(selectedMsec, selectedMode == SELECTED_END_INCLUSIVE);
+        if (selected < 0)
+            return null;
+        TimeRecordStore store = layer.store;
+        long timestampMsec = store.getTimestampMsec(selected);
+        long durationMsec = store.getDurationMsec(selected);
+        return obtainRect(
+                Math.max((int) ((timestampMsec - minValue) * msecInPixels), 0), // left
+                top,
+                Math.min((int) ((timestampMsec - minValue + durationMsec) * msecInPixels), width), // right
+                bottom);
+    }
+
+    @NonNull
+    private DrawRect obtainRect(int left, int top, int right, int bottom) {
+        DrawRect rect;
+        if (_rectPoolUsed < _rectPool.size()) {
+            rect = _rectPool.get(_rectPoolUsed);
+        } else {
+            rect = new DrawRect();
+            _rectPool.add(rect);
+        }
+        _rectPoolUsed++;
+        rect.set(left, top, right, bottom);
+        rect.color = -1;
+        return rect;
+    }
+
+    /**
+     * Adds rectangle to the list. If merge is set, merges it into the last added one
+     * if they have the same color and their drawn areas overlap or touch.
+     * Rectangle should be the last one obtained from pool, it is returned back if merged.
+     * @param lineHalfWidth half width of the line drawn on the left side of rectangle
+     */
+    private void addRect(
+            @NonNull ArrayList<DrawRect> rects,
+            @NonNull DrawRect rect,
+            int lineHalfWidth,
+            boolean merge) {
+        int drawnRight = Math.max(rect.right, rect.left + lineHalfWidth);
+        if (merge && !rects.isEmpty()) {
+            DrawRect last = rects.get(rects.size() - 1);
+            if (last.color == rect.color &&
+                drawnRight >= last.left - lineHalfWidth &&
+                rect.left - lineHalfWidth <= last.right) {
+
+                last.left = Math.min(last.left, rect.left);
+                last.right = Math.max(last.right, drawnRight);
+                _rectPoolUsed--;
+                return;
+            }
+        }
+        if (merge)
+            rect.right = drawnRight;
+        rects.add(rect);
+    }
+
+    /**
+     * Returns index of the newest record started not later than maxValue.
+     * Records are sorted in descending order, so all records before this index are not visible.
+     */
+    private int getFirstVisibleIndex(@NonNull RecordIndex index, long maxValue, boolean search) {
+        if (!(binarySearchCulling || search) || !index.isSorted())
+            return 0;
+        return index.getFirstIndexStartedNotAfter(maxValue);
+    }
+
+    /**
+     * Same as RecordIndex.getFirstIndexStartedNotAfter(), but moves the index found for the
+     * previous time, so cost depends on number of records between the two times.
+     */
+    private static int moveFirstIndexStartedNotAfter(@NonNull RecordIndex index, int prevIndex, long maxValue) {
+        int i = Math.min(prevIndex, index.size());
+        while (i > 0 && index.getStart(i - 1) <= maxValue)
+            i--;
+        while (i < index.size() && index.getStart(i) > maxValue)
+            i++;
+        return i;
+    }
+
+    /**
+     * Same as RecordIndex.getFirstIndexStartedBefore(), but moves the index found for the
+     * previous time, so cost depends on number of records between the two times.
+     */
+    private static int moveFirstIndexStartedBefore(@NonNull RecordIndex index, int prevIndex, long minValue) {
+        int i = Math.min(prevIndex, index.size());
+        while (i > 0 && index.getStart(i - 1) < minValue)
+            i--;
+        while (i < index.size() && index.getStart(i) >= minValue)
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns index of the newest record started earlier than minValue, searching from fromIndex,
+     * or size() if records are scanned.
+     */
+    private int getVisibleEndIndex(@NonNull RecordIndex index, long minValue, int fromIndex, boolean search) {
+        if (!(binarySearchCulling || search) || !index.isSorted())
+            return index.size();
+        return Math.max(index.getFirstIndexStartedBefore(minValue), fromIndex);
+    }
+
+    /**
+     * Returns i if it is less than endIndex, otherwise index of the next record not less than i
+     * ended not earlier than minValue, or -1. So records started before the window are skipped
+     * block by block via index, and a single long record does not make all records scanned.
+     */
+    static int getNextVisibleIndex(@NonNull RecordIndex index, int i, int endIndex, long minValue) {
+        if (i < endIndex)
+            return i;
+        return index.getFirstIndexEndedAfter(i, minValue - 1);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of TimelineView rendering metrics returned by TimelineView.getMetrics().
+ * Percentiles are computed over the last WINDOW_FRAMES frames, other values are of the last frame.
+ */
+public final class TimelineMetrics {
+
+    public static final int WINDOW_FRAMES = 128;
+
+    // Draw sections. Layers use TimelineView.LAYER_* indexes.
+    public static final int SECTION_TRACKS    = 3;
+    public static final int SECTION_RULER     = 4;
+    public static final int SECTION_TIME_DATE = 5;
+    public static final int SECTIONS          = 6;
+
+    // Record counts of layers use TimelineView.LAYER_* indexes, SECTION_TRACKS for all tracks.
+    public static final int RECORD_GROUPS = 4;
+
+    /** Total number of frames drawn while metrics were enabled */
+    public final long frames;
+    /** Number of frames in rolling window */
+    public final int windowFrames;
+
+    public final long updateNanosP50;
+    public final long updateNanosP90;
+    public final long updateNanosP99;
+    public final long frameNanosP50;
+    public final long frameNanosP90;
+    public final long frameNanosP99;
+
+    /** Draw time of every section in the last frame */
+    @NonNull public final long[] sectionNanos;
+    /** Records projected to the view in the last frame, buckets if coverage pyramid was used */
+    @NonNull public final int[] visibleRecords;
+    /** Records skipped in the last frame */
+    @NonNull public final int[] culledRecords;
+
+    TimelineMetrics(
+            long frames,
+            @NonNull long[] updateNanos,
+            @NonNull long[] frameNanos,
+            @NonNull long[] sectionNanos,
+            @NonNull int[] visibleRecords,
+            @NonNull int[] culledRecords) {
+        this.frames = frames;
+        this.windowFrames = frameNanos.length;
+        this.updateNanosP50 = getPercentile(updateNanos, 50);
+        this.updateNanosP90 = getPercentile(updateNanos, 90);
+        this.updateNanosP99 = getPercentile(updateNanos, 99);
+        this.frameNanosP50 = getPercentile(frameNanos, 50);
+        this.frameNanosP90 = getPercentile(frameNanos, 90);
+        this.frameNanosP99 = getPercentile(frameNanos, 99);
+        this.sectionNanos = sectionNanos;
+        this.visibleRecords = visibleRecords;
+        this.culledRecords = culledRecords;
+    }
+
+    /**
+     * Returns percentile of sorted values, 0 if there are none.
+     */
+    static long getPercentile(@NonNull long[] sorted, int percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Collects metrics of drawn frames into fixed size ring buffers, so recording does not allocate.
+ * Percentiles are computed only when snapshot is requested.
+ */
+final class TimelineMetricsRecorder {
+
+    private static final int WINDOW = TimelineMetrics.WINDOW_FRAMES;
+
+    private final long[] _updateNanos = new long[WINDOW];
+    private int _updateCount = 0;
+    private int _updatePos = 0;
+    private final long[] _frameNanos = new long[WINDOW];
+    private int _frameCount = 0;
+    private int _framePos = 0;
+    private long _frames = 0;
+    private final long[] _sectionNanos = new long[TimelineMetrics.SECTIONS];
+    private final int[] _visibleRecords = new int[TimelineMetrics.RECORD_GROUPS];
+    private final int[] _culledRecords = new int[TimelineMetrics.RECORD_GROUPS];
+    private final int[] _totalRecords = new int[TimelineMetrics.RECORD_GROUPS];
+
+    void onUpdate(long nanos) {
+        _updateNanos[_updatePos] = nanos;
+        _updatePos = (_updatePos + 1) % WINDOW;
+        _updateCount = Math.min(_updateCount + 1, WINDOW);
+    }
+
+    void onFrameStart() {
+        Arrays.fill(_sectionNanos, 0);
+    }
+
+    /**
+     * Adds draw time to the section, section can be drawn in several parts.
+     */
+    void onSection(int section, long nanos) {
+        _sectionNanos[section] += nanos;
+    }
+
+    void onFrame(long nanos, @NonNull TimelineLayout layout) {
+        _frameNanos[_framePos] = nanos;
+        _framePos = (_framePos + 1) % WINDOW;
+        _frameCount = Math.min(_frameCount + 1, WINDOW);
+        _frames++;
+        // Built-in layers have own groups, tracks added by the app share the last one
+        Arrays.fill(_totalRecords, 0);
+        for (TimelineTrack track : layout.tracks)
+            _totalRecords[Math.min(track.id, TimelineMetrics.SECTION_TRACKS)] += track.layer.store.size();
+        for (int group = 0; group < TimelineMetrics.RECORD_GROUPS; group++)
+            setRecords(group, layout.visibleRecords[group], _totalRecords[group]);
+    }
+
+    private void setRecords(int group, int visible, int total) {
+        _visibleRecords[group] = visible;
+        _culledRecords[group] = Math.max(0, total - visible);
+    }
+
+    @NonNull
+    TimelineMetrics snapshot() {
+        long[] updateNanos = Arrays.copyOf(_updateNanos, _updateCount);
+        Arrays.sort(updateNanos);
+        long[] frameNanos = Arrays.copyOf(_frameNanos, _frameCount);
+        Arrays.sort(frameNanos);
+        return new TimelineMetrics(
+                _frames,
+                updateNanos,
+                frameNanos,
+                _sectionNanos.clone(),
+                _visibleRecords.clone(),
+                _culledRecords.clone());
+    }
+
+}
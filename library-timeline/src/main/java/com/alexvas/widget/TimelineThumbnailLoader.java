@@ -0,0 +1,30 @@
+package com.alexvas.widget;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Source of thumbnails drawn by TimelineView at 1 to 15 min intervals. Thumbnails are requested
+ * per time bucket having background records, every bucket is requested once until it is evicted
+ * from cache or TimelineView.clearThumbnails() is called.
+ */
+public interface TimelineThumbnailLoader {
+    /**
+     * Called on the executor set via TimelineView.setThumbnailLoader(), never on UI thread.
+     * Bitmap of another size is scaled to width x height on the same thread.
+     * @param timestampMsec bucket start
+     * @param durationMsec bucket duration
+     * @param signal canceled once the bucket is scrolled out of view, loading may be aborted then
+     * @return thumbnail, e.g. decoded keyframe, or null if there is none
+     */
+    @Nullable
+    Bitmap loadThumbnail(
+            long timestampMsec,
+            long durationMsec,
+            int width,
+            int height,
+            @NonNull CancellationSignal signal);
+}
@@ -0,0 +1,113 @@
+package com.alexvas.widget;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Track of records drawn in its own vertical band. Built-in major1, major2 and background
+ * layers are tracks with TimelineView.LAYER_* IDs, tracks added by the app get IDs after them.
+ * Paint of the track is kept by the view by track ID, so layout does not depend on Android.
+ * Immutable, replaced as a whole when records or appearance change, so layout running on
+ * a background thread sees consistent data.
+ */
+final class TimelineTrack {
+
+    static final TimelineTrack[] NONE = new TimelineTrack[0];
+
+    // Line is drawn on the left side of rectangles, so records narrower than a pixel are visible
+    static final int FLAG_LEFT_LINE     = 1;
+    // Records with own color are drawn with it, otherwise all records are drawn with track paint
+    static final int FLAG_RECORD_COLORS = 2;
+    // Drawn as density heatmap at long intervals if heatmap is enabled, at most one track
+    static final int FLAG_HEATMAP       = 4;
+    // Rasterized to tiles if tile cache is enabled, built-in layers only
+    static final int FLAG_TILES         = 8;
+    // Always culled via binary search, so the track costs only its visible records
+    static final int FLAG_SEARCH        = 16;
+
+    final int id;
+    final int flags;
+    // TimelineLayout.SELECTED_* mode of the record containing selected time
+    final int selectedMode;
+    // Vertical band as fractions of view height, shrunk by inset pixels at both sides
+    final float bandTop;
+    final float bandBottom;
+    final int bandInset;
+    final int zOrder;
+    @NonNull final RecordLayer layer;
+
+    TimelineTrack(
+            int id,
+            int flags,
+            int selectedMode,
+            float bandTop,
+            float bandBottom,
+            int bandInset,
+            int zOrder,
+            @NonNull RecordLayer layer) {
+        this.id = id;
+        this.flags = flags;
+        this.selectedMode = selectedMode;
+        this.bandTop = bandTop;
+        this.bandBottom = bandBottom;
+        this.bandInset = bandInset;
+        this.zOrder = zOrder;
+        this.layer = layer;
+    }
+
+    /**
+     * Returns tracks of the built-in layers without records, background drawn first.
+     */
+    @NonNull
+    static TimelineTrack[] createLayerTracks() {
+        return createLayerTracks(RecordLayer.EMPTY, RecordLayer.EMPTY, RecordLayer.EMPTY);
+    }
+
+    /**
+     * Returns tracks of the built-in layers, background drawn first. Bands span the whole
+     * height, insets are set with view size.
+     */
+    @NonNull
+    static TimelineTrack[] createLayerTracks(
+            @NonNull RecordLayer major1,
+            @NonNull RecordLayer major2,
+            @NonNull RecordLayer background) {
+        return new TimelineTrack[] {
+                createLayerTrack(TimelineView.LAYER_BACKGROUND,
+                        FLAG_TILES,
+                        TimelineLayout.SELECTED_NONE,
+                        background),
+                createLayerTrack(TimelineView.LAYER_MAJOR1,
+                        FLAG_LEFT_LINE | FLAG_RECORD_COLORS | FLAG_HEATMAP | FLAG_TILES,
+                        TimelineLayout.SELECTED_END_EXCLUSIVE,
+                        major1),
+                createLayerTrack(TimelineView.LAYER_MAJOR2,
+                        FLAG_LEFT_LINE | FLAG_RECORD_COLORS | FLAG_TILES,
+                        TimelineLayout.SELECTED_END_INCLUSIVE,
+                        major2)
+        };
+    }
+
+    @NonNull
+    private static TimelineTrack createLayerTrack(
+            int layer,
+            int flags,
+            int selectedMode,
+            @NonNull RecordLayer recordLayer) {
+        return new TimelineTrack(layer, flags, selectedMode, 0f, 1f, 0, 0, recordLayer);
+    }
+
+    boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    @NonNull
+    TimelineTrack withLayer(@NonNull RecordLayer layer) {
+        return new TimelineTrack(id, flags, selectedMode, bandTop, bandBottom, bandInset, zOrder, layer);
+    }
+
+    @NonNull
+    TimelineTrack withBandInset(int bandInset) {
+        return new TimelineTrack(id, flags, selectedMode, bandTop, bandBottom, bandInset, zOrder, layer);
+    }
+
+}
@@ -1,8 +1,5 @@
 package com.alexvas.widget;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Configuration;
@@ -19,28 +16,37 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.SoundEffectConstants;
 import android.view.View;
 import android.view.WindowManager;
-import android.view.animation.AccelerateDecelerateInterpolator;
-import android.view.animation.DecelerateInterpolator;
-import android.view.animation.Interpolator;
+import android.view.animation.AnimationUtils;
 
+import com.alexvas.widget.TimelineLayout.DrawRect;
 import com.alexvas.widget.timeline.R;
 
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TimelineView extends View {
 
@@ -55,6 +61,17 @@ public class TimelineView extends View {
     public static final long INTERVAL_DAY_7   = 168 * 60 * 60 * 1000L; //  7 days
     public static final long INTERVAL_DAY_30  = 720 * 60 * 60 * 1000L; // 30 days
 
+    public static final int LAYER_MAJOR1     = 0;
+    public static final int LAYER_MAJOR2     = 1;
+    public static final int LAYER_BACKGROUND = 2;
+    private static final int LAYERS = 3;
+    // Trace section names of built-in layers, by layer
+    private static final String[] LAYER_SECTION_NAMES = {
+            "TimelineView.drawMajor1",
+            "TimelineView.drawMajor2",
+            "TimelineView.drawBackground"
+    };
+
     public static final long ANIMATION_DURATION_MSEC = 150;
 
     @SuppressWarnings("FieldCanBeLocal")
@@ -79,6 +96,23 @@ public class TimelineView extends View {
         void onRequestMoreMajor2Data();
     }
 
+    public interface OnRecordsEvictedListener {
+        /**
+         * Called when records of the layer were evicted by retention policy.
+         * @param oldestMsec timestamp of the oldest evicted record
+         * @param newestMsec timestamp of the newest evicted record
+         */
+        void onRecordsEvicted(int layer, long oldestMsec, long newestMsec, int numRecords);
+    }
+
+    public interface OnLiveModeChangedListener {
+        /**
+         * Called when live mode was enabled or dropped, e.g. when timeline was touched or
+         * current time was set.
+         */
+        void onLiveModeChanged(boolean enabled);
+    }
+
     public static class TimeRecord {
         public final long timestampMsec; // absolute
         public final long durationMsec;  // relative. Can be 0 if unknown.
@@ -106,15 +140,15 @@ public class TimelineView extends View {
         }
     }
 
-    private final SimpleDateFormat _formatHourMin = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private SimpleDateFormat _formatHourMin = new SimpleDateFormat("HH:mm", Locale.getDefault());
 //    private final SimpleDateFormat _formatHourMinSec = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
-    private final SimpleDateFormat _formatShortDate = new SimpleDateFormat("MMM d", Locale.getDefault());
+    private SimpleDateFormat _formatShortDate = new SimpleDateFormat("MMM d", Locale.getDefault());
 
     private class DefaultDateFormatter implements TimeDateFormatter {
 //      private final SimpleDateFormat _formatMins = new SimpleDateFormat(
 //              getResources().getString(R.string.TIME_FORMAT_TIMELINE_MINS), Locale.getDefault());
-        private final SimpleDateFormat _formatHours = new SimpleDateFormat(
-                getResources().getString(R.string.TIME_FORMAT_TIMELINE_HOUR), Locale.getDefault());
+        private final String _patternHours = getResources().getString(R.string.TIME_FORMAT_TIMELINE_HOUR);
+        private final SimpleDateFormat _formatHours = new SimpleDateFormat(_patternHours, Locale.getDefault());
         private final SimpleDateFormat _formatDateYear = new SimpleDateFormat(
                 getResources().getString(R.string.DATE_FORMAT_YEAR), Locale.getDefault());
         @Override
@@ -129,36 +163,66 @@ public class TimelineView extends View {
         }
     }
 
-    private static class DrawRect {
-        public int left;
-        public int top;
-        public int right;
-        public int bottom;
-        @ColorInt int color = -1;
-        public DrawRect() {}
-        public DrawRect(int left, int top, int right, int bottom) {
-            this.left = left;
-            this.top = top;
-            this.right = right;
-            this.bottom = bottom;
-        }
-        public void set(int left, int top, int right, int bottom) {
-            this.left = left;
-            this.top = top;
-            this.right = right;
-            this.bottom = bottom;
-        }
-    }
-
-    private ArrayList<TimeRecord> _recordsMajor1 = new ArrayList<>();
-    private ArrayList<TimeRecord> _recordsMajor2 = new ArrayList<>();
-    private ArrayList<TimeRecord> _recordsBackground = new ArrayList<>();
-    private DrawRect _rectMajor1Selected = null;
-    private DrawRect _rectMajor2Selected = null;
-    private final ArrayList<DrawRect> _rectsMajor1 = new ArrayList<>();
-    private final ArrayList<DrawRect> _rectsMajor2 = new ArrayList<>();
-    private final ArrayList<DrawRect> _rectsBackground = new ArrayList<>();
-    private final DrawRect _rectNoData = new DrawRect();
+    // Lists of records layers were set from. Null if not copied yet from the store of the layer
+    // with appended records.
+    @Nullable private ArrayList<TimeRecord> _recordsMajor1 = new ArrayList<>();
+    @Nullable private ArrayList<TimeRecord> _recordsMajor2 = new ArrayList<>();
+    @Nullable private ArrayList<TimeRecord> _recordsBackground = new ArrayList<>();
+    private boolean _coveragePyramid = false;
+    private long _backgroundCoverageMsec = 0;
+    private long _heatmapMinIntervalMsec = 0;
+    private boolean _strictRecordOrder = false;
+    // Incremented on every set*Records(), so records sorted on executor are not set over newer ones
+    private final int[] _setRecordsGenerations = new int[3];
+    // Records appended to the layer while its records are sorted on executor, added after them.
+    // Null if records are not being sorted.
+    @SuppressWarnings("unchecked")
+    private final ArrayList<PendingAppend>[] _pendingAppends = new ArrayList[3];
+    // Unsorted batches of this size are sorted in parallel and off UI thread if possible
+    private static final int PARALLEL_SORT_MIN_RECORDS = 50000;
+    // Colors of major1 heatmap from the lowest density (1 record per pixel) to the highest one
+    // (128+ records per pixel), every next level has twice as many records
+    @NonNull private int[] _heatmapColors = {
+            0xFF404000, 0xFF666600, 0xFF999900, 0xFFCCCC00,
+            0xFFFFFF00, 0xFFFFC000, 0xFFFF8000, 0xFFFF0000
+    };
+    // IDs of tracks with coverage pyramid being built on the layout executor
+    private final HashSet<Integer> _pyramidsPending = new HashSet<>();
+    // Built-in layers take the first track IDs
+    private int _nextTrackId = LAYERS;
+    // Null if metrics are disabled
+    @Nullable private TimelineMetricsRecorder _metrics = null;
+    // Layout being drawn
+    private TimelineLayout _layout = new TimelineLayout();
+    // Layout computed on executor and not drawn yet
+    private final AtomicReference<TimelineLayout> _pendingLayout = new AtomicReference<>();
+    // Layout not used anymore, can be reused by executor
+    private final AtomicReference<TimelineLayout> _freeLayout = new AtomicReference<>();
+    private final AtomicInteger _layoutGeneration = new AtomicInteger();
+    @Nullable private Executor _layoutExecutor = null;
+    private boolean _binarySearchCulling = false;
+    private boolean _levelOfDetail = false;
+    private boolean _continuousZoom = false;
+    // Continuous pinch zoom is in progress
+    private boolean _scaling = false;
+    private boolean _liveMode = false;
+    @Nullable private OnLiveModeChangedListener _liveModeListener = null;
+    // In live mode records are projected again after they were shifted by this number of pixels
+    private static final int LIVE_RELAYOUT_PIXELS = 32;
+    private static final long LIVE_MIN_FRAME_MSEC = 16;
+    private boolean _colorBatching = false;
+    @Nullable private RecordTileCache _tileCache = null;
+    @Nullable private ThumbnailStrip _thumbnails = null;
+    @Nullable private TimelineDataSource _dataSource = null;
+    private long _dataSourcePrefetchMsec = INTERVAL_HOUR_1;
+    private long _dataSourcePageMsec = INTERVAL_HOUR_6;
+    private final RetentionWindow _retention = new RetentionWindow();
+    private final OnRecordsEvictedListener _evictionHandler = this::onRecordsEvicted;
+    @Nullable private OnRecordsEvictedListener _evictedListener = null;
+    private final MoreDataRequestTracker _moreDataRequests = new MoreDataRequestTracker(3);
+    // Ranges already requested from data source per layer
+    private final LoadedRangeTracker[] _loadedRanges = {
+            new LoadedRangeTracker(), new LoadedRangeTracker(), new LoadedRangeTracker() };
 
     private final Paint _paintMajor1 = new Paint();
     private final Paint _paintMajor2 = new Paint();
@@ -170,8 +234,17 @@ public class TimelineView extends View {
     private final Paint _paintTextRuler = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Paint _paintTextRulerMain = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Paint _paintNoData = new Paint();
+    private final Paint _paintThumbnailPlaceholder = new Paint();
 
-    private ValueAnimator _animator;
+    // Tracks sorted by z-order, built-in layers first. Their layers are columnar copies of records
+    // with index and coverage pyramid, rebuilt every time records are set. Used for culling,
+    // drawing, hit-testing and navigation. Replaced as a whole on every change.
+    private TimelineTrack[] _tracks = TimelineTrack.createLayerTracks();
+    // Paints of tracks by track ID
+    private final SparseArray<TrackPaint> _trackPaints = new SparseArray<>();
+
+    private final TimelineAnimator _animator = new TimelineAnimator();
+    private boolean _animationPosted = false;
     private TimeDateFormatter _timedateFormatter = new DefaultDateFormatter();
 
     private long _selectedMsec = 0;
@@ -180,6 +253,30 @@ public class TimelineView extends View {
     private int _gmtOffsetInMillis = 0;
     private final Rect _rect000000 = new Rect();
 
+    // Reusable temporaries for text drawing, so panning does not allocate
+    private static final long TEXT_KEY_INVALID = Long.MIN_VALUE;
+    private static final long TEXT_KEY_NOW     = Long.MIN_VALUE + 1;
+    private final Calendar _calendar = Calendar.getInstance();
+    private final Date _tickDate = new Date(0);
+    private char[] _tickLabel = new char[16];
+    private int _tickLabelLength = 0;
+    private String[] _shortMonths = new String[0];
+    // Whether numbers are formatted with ASCII digits in default locale
+    private boolean _asciiDigits = true;
+    // Whether default "HH:mm:ss" time format is used
+    private boolean _fastTimeFormat = false;
+    private char[] _timeText = new char[16];
+    private int _timeTextLength = 0;
+    private long _timeTextKey = TEXT_KEY_INVALID;
+    private String _dateText = "";
+    private long _dateTextKey = TEXT_KEY_INVALID;
+    // Formatted and measured ruler labels. Cleared when locale, time zone or text size changes.
+    private final RulerLabelCache _labelCache = new RulerLabelCache();
+    private float _labelCacheTextSize = 0;
+    private int _tickMaxWidth = 0;
+    @Nullable private Locale _locale = null;
+    @Nullable private String _timeZoneId = null;
+
     private float _density = 0.0f;
     private boolean _needUpdate = true;
     private GestureDetector _gestureDetector;
@@ -204,6 +301,10 @@ public class TimelineView extends View {
     @Override
     protected void onDetachedFromWindow() {
         removeCallbacks(_selectedRunnable);
+        removeCallbacks(_liveRunnable);
+        cancelAnimation();
+        // Drop layout requested on executor
+        _layoutGeneration.incrementAndGet();
         super.onDetachedFromWindow();
     }
 
@@ -215,14 +316,15 @@ public class TimelineView extends View {
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
                 _isTouched = true;
+                setLiveMode(false);
                 break;
             case MotionEvent.ACTION_CANCEL:
             case MotionEvent.ACTION_UP:
                 _isTouched = false;
                 break;
         }
-        if (_gestureListener.isAnimating()) {
-            _gestureListener.cancelAnimation();
+        if (_animator.getTimeKind() == TimelineAnimator.TIME_FLING) {
+            cancelFling();
         } else {
             _gestureDetector.onTouchEvent(event);
             _scaleDetector.onTouchEvent(event);
@@ -244,6 +346,15 @@ public class TimelineView extends View {
 
     public void setTimeDateFormatter(@NonNull TimeDateFormatter formatter) {
         _timedateFormatter = formatter;
+        _fastTimeFormat = isFastTimeFormat(formatter);
+        _timeTextKey = TEXT_KEY_INVALID;
+        _dateTextKey = TEXT_KEY_INVALID;
+    }
+
+    private boolean isFastTimeFormat(@NonNull TimeDateFormatter formatter) {
+        return _asciiDigits &&
+               formatter instanceof DefaultDateFormatter &&
+               "HH:mm:ss".equals(((DefaultDateFormatter) formatter)._patternHours);
     }
 
     public void setOnTimelineListener(@Nullable OnTimelineListener listener) {
@@ -254,31 +365,768 @@ public class TimelineView extends View {
         //noinspection ConstantConditions
         if (records == null)
             throw new NullPointerException("List of major1 records is null");
-//      checkRecordsDescending(records);
-        _recordsMajor1 = records;
-        _needUpdate = true;
+        setRecords(LAYER_MAJOR1, TimeRecordStore.fromRecords(records));
+    }
+
+    /**
+     * Sets major1 records without per-record objects. getMajor1Records() returns empty list afterwards.
+     */
+    public void setMajor1Records(@NonNull TimeRecordStore store) {
+        //noinspection ConstantConditions
+        if (store == null)
+            throw new NullPointerException("Store of major1 records is null");
+        setRecords(LAYER_MAJOR1, store);
     }
 
     public void setMajor2Records(@NonNull ArrayList<TimeRecord> records) {
         //noinspection ConstantConditions
         if (records == null)
             throw new NullPointerException("List of major2 records is null");
-//      checkRecordsDescending(records);
-        _recordsMajor2 = records;
-        _needUpdate = true;
+        setRecords(LAYER_MAJOR2, TimeRecordStore.fromRecords(records));
+    }
+
+    /**
+     * Sets major2 records without per-record objects.
+     */
+    public void setMajor2Records(@NonNull TimeRecordStore store) {
+        //noinspection ConstantConditions
+        if (store == null)
+            throw new NullPointerException("Store of major2 records is null");
+        setRecords(LAYER_MAJOR2, store);
     }
 
     public void setBackgroundRecords(@NonNull ArrayList<TimeRecord> records) {
         //noinspection ConstantConditions
         if (records == null)
             throw new NullPointerException("List of background records is null");
-//      checkRecordsDescending(records);
-        _recordsBackground = records;
+        setRecords(LAYER_BACKGROUND, TimeRecordStore.fromRecords(records));
+    }
+
+    /**
+     * Sets background records without per-record objects. getBackgroundRecords() returns empty list afterwards.
+     */
+    public void setBackgroundRecords(@NonNull TimeRecordStore store) {
+        //noinspection ConstantConditions
+        if (store == null)
+            throw new NullPointerException("Store of background records is null");
+        setRecords(LAYER_BACKGROUND, store);
+    }
+
+    /**
+     * Adds records newer than already set ones to the layer, e.g. live events.
+     * Records should be sorted in descending order. If they are all newer than already set
+     * records, adding takes O(k) for k records, otherwise they are merged taking O(n).
+     * Only tiles of the added time range are rasterized again.
+     * @param layer one of LAYER_MAJOR1, LAYER_MAJOR2 or LAYER_BACKGROUND
+     * @throws IllegalStateException if layer records were set as TimeRecordStore
+     */
+    public void appendNewer(int layer, @NonNull List<TimeRecord> records) {
+        append(layer, records, false);
+    }
+
+    /**
+     * Adds records older than already set ones to the layer, e.g. a page loaded in
+     * OnTimelineListener.onRequestMore*Data(). Records should be sorted in descending order.
+     * If they are all older than already set records, adding takes O(k) for k records.
+     * @param layer one of LAYER_MAJOR1, LAYER_MAJOR2 or LAYER_BACKGROUND
+     * @throws IllegalStateException if layer records were set as TimeRecordStore
+     */
+    public void appendOlder(int layer, @NonNull List<TimeRecord> records) {
+        append(layer, records, true);
+    }
+
+    private static final class PendingAppend {
+        @NonNull final TimeRecordStore records;
+        final boolean older;
+
+        PendingAppend(@NonNull TimeRecordStore records, boolean older) {
+            this.records = records;
+            this.older = older;
+        }
+    }
+
+    private static final class TrackPaint {
+        // Paint of records without own color
+        @NonNull final Paint paint;
+        // Paint of the record containing selected time, null if it is not highlighted
+        @Nullable final Paint selectedPaint;
+
+        TrackPaint(@NonNull Paint paint, @Nullable Paint selectedPaint) {
+            this.paint = paint;
+            this.selectedPaint = selectedPaint;
+        }
+    }
+
+    private void append(int layer, @NonNull List<TimeRecord> records, boolean older) {
+        TimeRecordStore store = TimeRecordStore.fromRecords(records);
+        if (!checkRecordsDescending(store))
+            store = store.sortDescending(false);
+        RecordLayer recordLayer = getLayer(layer);
+        // Records set before are still being sorted, add these ones after them
+        ArrayList<PendingAppend> pending = _pendingAppends[layer];
+        if (pending != null) {
+            pending.add(new PendingAppend(store, older));
+            return;
+        }
+        setLayer(layer, append(recordLayer, store, older), store);
+    }
+
+    @NonNull
+    private static RecordLayer append(@NonNull RecordLayer recordLayer, @NonNull TimeRecordStore store, boolean older) {
+        return older ? recordLayer.appendOlder(store) : recordLayer.appendNewer(store);
+    }
+
+    /**
+     * Sets source queried for records of the visible time range extended by prefetch margin on
+     * both sides. Ranges are requested in pages of fixed duration aligned to multiples of it,
+     * pages later than the current time are not requested. Every page is requested only once,
+     * newer data is expected to come via appendNewer().
+     * OnTimelineListener.onRequestMore*Data() callbacks are still called.
+     */
+    public void setDataSource(@Nullable TimelineDataSource source, long prefetchMarginMsec, long pageMsec) {
+        if (pageMsec <= 0)
+            throw new IllegalArgumentException("Page duration should be positive");
+        _dataSource = source;
+        _dataSourcePrefetchMsec = Math.max(0, prefetchMarginMsec);
+        _dataSourcePageMsec = pageMsec;
+        resetLoadedRanges();
+        _needUpdate = true;
+    }
+
+    /**
+     * Forgets requested ranges of the layer, so data source is queried for them again.
+     */
+    public void resetLoadedRanges(int layer) {
+        _loadedRanges[layer].clear();
+        _needUpdate = true;
+    }
+
+    public void resetLoadedRanges() {
+        for (LoadedRangeTracker tracker : _loadedRanges)
+            tracker.clear();
+        _needUpdate = true;
+    }
+
+    @NonNull
+    private RecordLayer getLayer(int layer) {
+        if (layer < 0 || layer >= LAYERS)
+            throw new IllegalArgumentException("Unknown layer " + layer);
+        return _tracks[getTrackPosition(layer)].layer;
+    }
+
+    /**
+     * Sets layer with appended records.
+     * @param appended records appended to the layer, only their time range is redrawn
+     */
+    private void setLayer(int layer, @NonNull RecordLayer recordLayer, @NonNull TimeRecordStore appended) {
+        RecordLayer prevLayer = getLayer(layer);
+        putLayer(layer, recordLayer);
+        if (_tileCache != null && !appended.isEmpty()) {
+            long startMsec = Long.MAX_VALUE;
+            long endMsec = Long.MIN_VALUE;
+            for (int i = 0; i < appended.size(); i++) {
+                startMsec = Math.min(startMsec, appended.getTimestampMsec(i));
+                endMsec = Math.max(endMsec, appended.getEndMsec(i));
+            }
+            _tileCache.invalidate(layer, startMsec, endMsec);
+        }
+        clearMissingThumbnails(layer);
+        completeMoreDataRequest(layer, prevLayer);
+        _needUpdate = true;
+    }
+
+    /**
+     * Thumbnails are shown for background records, buckets without thumbnails may get them
+     * once records are changed.
+     */
+    private void clearMissingThumbnails(int layer) {
+        if (layer == LAYER_BACKGROUND && _thumbnails != null)
+            _thumbnails.clearMissing();
+    }
+
+    private void putLayer(int layer, @NonNull RecordLayer recordLayer) {
+        List<TimeRecord> list = recordLayer.store.getRecords();
+        ArrayList<TimeRecord> records = list == null ? new ArrayList<>() :
+                list instanceof ArrayList ? (ArrayList<TimeRecord>) list : null;
+        switch (layer) {
+            case LAYER_MAJOR1:
+                _recordsMajor1 = records;
+                break;
+            case LAYER_MAJOR2:
+                _recordsMajor2 = records;
+                break;
+            default:
+                _recordsBackground = records;
+                // Layer appended to the empty one has no bitset yet
+                recordLayer = recordLayer.withCoverage(_backgroundCoverageMsec);
+                break;
+        }
+        putTrackLayer(layer, recordLayer);
+    }
+
+    /**
+     * Returns layer with coverage pyramid if it is enabled and missing. Pyramid is built on the
+     * layout executor if it is set, records are drawn one by one until it is built.
+     */
+    @NonNull
+    private RecordLayer withRequiredPyramid(int trackId, @NonNull RecordLayer recordLayer) {
+        if (!isPyramidRequired() || recordLayer.pyramid != null || recordLayer.store.isEmpty())
+            return recordLayer;
+        if (_layoutExecutor == null)
+            return recordLayer.withPyramid(true);
+        requestPyramid(trackId);
+        return recordLayer;
+    }
+
+    /**
+     * Returns whether layers should have coverage pyramids. While pinching they are used even
+     * if disabled, so every frame costs the same at any number of records. Such pyramids are
+     * built only on the layout executor and kept for the next pinch.
+     */
+    private boolean isPyramidRequired() {
+        return _coveragePyramid || (_scaling && _layoutExecutor != null);
+    }
+
+    /**
+     * Requests pyramids missing in layers and tracks.
+     */
+    private void requestPyramids() {
+        for (TimelineTrack track : _tracks) {
+            if (track.layer.pyramid == null && !track.layer.store.isEmpty())
+                requestPyramid(track.id);
+        }
+    }
+
+    /**
+     * Builds pyramid of the current layer of the track on the layout executor. Only one pyramid
+     * per track is built at a time, if the layer was changed meanwhile, it is built again.
+     */
+    private void requestPyramid(final int trackId) {
+        Executor executor = _layoutExecutor;
+        if (executor == null || !_pyramidsPending.add(trackId))
+            return;
+        final RecordLayer recordLayer = getTrackLayer(trackId);
+        if (recordLayer == null) {
+            _pyramidsPending.remove(trackId);
+            return;
+        }
+        executor.execute(() -> {
+            final CoveragePyramid pyramid = CoveragePyramid.build(recordLayer.store);
+            post(() -> {
+                _pyramidsPending.remove(trackId);
+                RecordLayer current = getTrackLayer(trackId);
+                if (current == null || current.pyramid != null)
+                    return;
+                // Pyramid built for pinching is kept even if it ended meanwhile
+                if (current != recordLayer) {
+                    if (isPyramidRequired())
+                        requestPyramid(trackId);
+                } else if (pyramid != null) {
+                    putTrackLayer(trackId, recordLayer.withPyramid(pyramid));
+                    _needUpdate = true;
+                    invalidate();
+                }
+            });
+        });
+    }
+
+    /**
+     * Returns the track or null if the track was removed.
+     */
+    @Nullable
+    private TimelineTrack getTrack(int trackId) {
+        for (TimelineTrack track : _tracks) {
+            if (track.id == trackId)
+                return track;
+        }
+        return null;
+    }
+
+    @Nullable
+    private RecordLayer getTrackLayer(int trackId) {
+        TimelineTrack track = getTrack(trackId);
+        return track != null ? track.layer : null;
+    }
+
+    /**
+     * Limits records kept by the view. Records farther than maxDistanceMsec from the selected
+     * time, or the farthest ones above maxRecords, are evicted and reported to the listener.
+     * Records are evicted in batches, once the limit is exceeded by a quarter, and records within
+     * the visible interval are never evicted. Evicted older records are requested again via
+     * OnTimelineListener.onRequestMore*Data() when scrolled to, evicted ranges of data source
+     * are requested again as well. Newer records are evicted only if data source is set, since
+     * there is no other way to request them again. Only records sorted in descending order are evicted.
+     * @param maxRecords maximum number of records per layer, 0 for unlimited
+     * @param maxDistanceMsec maximum distance of record start from the selected time, 0 for unlimited
+     */
+    public void setRetentionPolicy(
+            int maxRecords,
+            long maxDistanceMsec,
+            @Nullable OnRecordsEvictedListener listener) {
+        _retention.maxRecords = Math.max(0, maxRecords);
+        _retention.maxDistanceMsec = Math.max(0, maxDistanceMsec);
+        _evictedListener = listener;
+        _needUpdate = true;
+    }
+
+    private void applyRetentionPolicy() {
+        if (!_retention.isEnabled())
+            return;
+        for (int layer = LAYER_MAJOR1; layer <= LAYER_BACKGROUND; layer++)
+            applyRetentionPolicy(layer);
+    }
+
+    private void applyRetentionPolicy(int layer) {
+        RecordLayer recordLayer = getLayer(layer);
+        RecordIndex index = recordLayer.index;
+        if (!_retention.compute(index, _selectedMsec, _intervalMsec, _dataSource != null, _dataSourcePageMsec, _loadedRanges[layer]))
+            return;
+        putLayer(layer, recordLayer.slice(_retention.from, _retention.to));
+        _retention.reportEvicted(layer, index, _evictionHandler);
+    }
+
+    private void onRecordsEvicted(int layer, long oldestMsec, long newestMsec, int numRecords) {
+        if (_tileCache != null)
+            _tileCache.invalidate(layer, oldestMsec, newestMsec);
+        if (_evictedListener != null)
+            _evictedListener.onRecordsEvicted(layer, oldestMsec, newestMsec, numRecords);
+    }
+
+    private void onRecordsChanged(int layer, @NonNull RecordLayer prevLayer) {
+        invalidateTiles(layer);
+        clearMissingThumbnails(layer);
+        completeMoreDataRequest(layer, prevLayer);
+    }
+
+    /**
+     * Completes outstanding request of more data for the layer if records were set in reply.
+     * Request is considered empty if the oldest record did not get older.
+     */
+    private void completeMoreDataRequest(int layer, @NonNull RecordLayer prevLayer) {
+        if (_moreDataRequests.isInFlight(layer)) {
+            boolean empty = getOldestMsec(getLayer(layer)) >= getOldestMsec(prevLayer);
+            _moreDataRequests.onLoaded(layer, empty, SystemClock.uptimeMillis());
+        }
+    }
+
+    private static long getOldestMsec(@NonNull RecordLayer layer) {
+        TimeRecordStore store = layer.store;
+        return store.isEmpty() ? Long.MAX_VALUE : store.getTimestampMsec(store.size() - 1);
+    }
+
+    /**
+     * Reports that records requested via OnTimelineListener.onRequestMore*Data() were loaded.
+     * Setting or appending records of the layer reports it as well. Until then, the layer is
+     * not requested again. If no records were loaded, next requests are delayed exponentially.
+     * @param layer one of LAYER_MAJOR1, LAYER_MAJOR2 or LAYER_BACKGROUND
+     */
+    public void notifyMoreDataLoaded(int layer, int numRecords) {
+        _moreDataRequests.onLoaded(layer, numRecords == 0, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Reports that records requested via OnTimelineListener.onRequestMore*Data() failed to load.
+     * The layer is requested again not earlier than in minimum request interval.
+     */
+    public void notifyMoreDataFailed(int layer) {
+        _moreDataRequests.onFailed(layer, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Sets minimum interval between OnTimelineListener.onRequestMore*Data() calls for a layer,
+     * 1 sec by default.
+     */
+    public void setMoreDataRequestInterval(long minIntervalMsec) {
+        _moreDataRequests.setMinIntervalMsec(minIntervalMsec);
+    }
+
+    /**
+     * Adds track of records drawn in its own vertical band, e.g. person or vehicle events.
+     * Same as addTrack(Paint, float, float, int) with a filled paint of the specified color.
+     * @param color color of records without own color
+     */
+    public int addTrack(@ColorInt int color, float bandTop, float bandBottom, int zOrder) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setStrokeWidth(2f * _density);
+        return addTrack(paint, bandTop, bandBottom, zOrder);
+    }
+
+    /**
+     * Adds track of records drawn in its own vertical band, e.g. person or vehicle events.
+     * Tracks are culled via binary search, so every track costs only its visible records.
+     * Records are sorted in descending order the same way as by set*Records(), unsorted ones
+     * are sorted or reported in strict mode. Tracks with negative z-order are drawn
+     * below background and major layers, others above them. Tracks with the same z-order are
+     * drawn in order of adding.
+     * @param paint paint of records without own color, line on the left side of records is drawn
+     *              with its stroke width. Changes of the paint are drawn after invalidate().
+     * @param bandTop top of the band as a fraction of view height, from 0 to 1
+     * @param bandBottom bottom of the band as a fraction of view height, from 0 to 1
+     * @return track ID
+     * @throws IllegalArgumentException if not 0 <= bandTop < bandBottom <= 1
+     */
+    public int addTrack(@NonNull Paint paint, float bandTop, float bandBottom, int zOrder) {
+        if (!(bandTop >= 0 && bandTop < bandBottom && bandBottom <= 1))
+            throw new IllegalArgumentException("Invalid track band from " + bandTop + " to " + bandBottom);
+        TimelineTrack track = new TimelineTrack(
+                _nextTrackId++,
+                TimelineTrack.FLAG_LEFT_LINE | TimelineTrack.FLAG_RECORD_COLORS | TimelineTrack.FLAG_SEARCH,
+                TimelineLayout.SELECTED_NONE,
+                bandTop,
+                bandBottom,
+                0,
+                zOrder,
+                RecordLayer.EMPTY);
+        TimelineTrack[] tracks = Arrays.copyOf(_tracks, _tracks.length + 1);
+        // Keep tracks sorted by z-order, insert after tracks with the same one
+        int i = tracks.length - 1;
+        while (i > 0 && tracks[i - 1].zOrder > zOrder) {
+            tracks[i] = tracks[i - 1];
+            i--;
+        }
+        tracks[i] = track;
+        _tracks = tracks;
+        _trackPaints.put(track.id, new TrackPaint(paint, null));
+        _needUpdate = true;
+        return track.id;
+    }
+
+    public void removeTrack(int trackId) {
+        checkAddedTrack(trackId);
+        int i = getTrackPosition(trackId);
+        TimelineTrack[] tracks = new TimelineTrack[_tracks.length - 1];
+        System.arraycopy(_tracks, 0, tracks, 0, i);
+        System.arraycopy(_tracks, i + 1, tracks, i, tracks.length - i);
+        _tracks = tracks;
+        _trackPaints.remove(trackId);
+        _needUpdate = true;
+    }
+
+    public void setTrackRecords(int trackId, @NonNull ArrayList<TimeRecord> records) {
+        setTrackRecords(trackId, TimeRecordStore.fromRecords(records));
+    }
+
+    public void setTrackRecords(int trackId, @NonNull TimeRecordStore store) {
+        checkAddedTrack(trackId);
+        if (!checkRecordsDescending(store))
+            store = store.sortDescending(store.size() >= PARALLEL_SORT_MIN_RECORDS &&
+                                         Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+        putTrackLayer(trackId, new RecordLayer(store, false));
+        _needUpdate = true;
+    }
+
+    /**
+     * Built-in layers are changed only via set*Records() and append*().
+     */
+    private static void checkAddedTrack(int trackId) {
+        if (trackId >= LAYER_MAJOR1 && trackId < LAYERS)
+            throw new IllegalArgumentException("Track " + trackId + " is a built-in layer");
+    }
+
+    private void putTrackLayer(int trackId, @NonNull RecordLayer recordLayer) {
+        int i = getTrackPosition(trackId);
+        TimelineTrack[] tracks = _tracks.clone();
+        tracks[i] = tracks[i].withLayer(withRequiredPyramid(trackId, recordLayer));
+        _tracks = tracks;
+    }
+
+    /**
+     * Sets inset of the built-in layer band from the view edges. Tracks are replaced only if
+     * inset changed, e.g. on rotation, not on every frame.
+     */
+    private void setLayerInset(int layer, int inset) {
+        int i = getTrackPosition(layer);
+        if (_tracks[i].bandInset == inset)
+            return;
+        TimelineTrack[] tracks = _tracks.clone();
+        tracks[i] = tracks[i].withBandInset(inset);
+        _tracks = tracks;
+    }
+
+    private int getTrackPosition(int trackId) {
+        for (int i = 0; i < _tracks.length; i++) {
+            if (_tracks[i].id == trackId)
+                return i;
+        }
+        throw new IllegalArgumentException("Unknown track " + trackId);
+    }
+
+    /**
+     * Enables collecting of rendering metrics and android.os.Trace sections around update,
+     * every layer draw, ruler and current time drawing. Disabled metrics cost nothing.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled == (_metrics != null))
+            return;
+        _metrics = enabled ? new TimelineMetricsRecorder() : null;
+    }
+
+    public boolean isMetricsEnabled() {
+        return _metrics != null;
+    }
+
+    /**
+     * Returns snapshot of rendering metrics or null if metrics are disabled.
+     * Should be called on UI thread.
+     */
+    @Nullable
+    public TimelineMetrics getMetrics() {
+        TimelineMetricsRecorder metrics = _metrics;
+        return metrics != null ? metrics.snapshot() : null;
+    }
+
+    /**
+     * Enables binary search of the visible window instead of scanning all records on every frame.
+     * Requires records to be sorted by timestamp in descending order (newest first).
+     * Records list should not be modified after it was set, otherwise call set*Records() again.
+     */
+    public void setBinarySearchCulling(boolean enabled) {
+        _binarySearchCulling = enabled;
+        _needUpdate = true;
+    }
+
+    public boolean isBinarySearchCulling() {
+        return _binarySearchCulling;
+    }
+
+    /**
+     * Enables merging of touching same color rectangles into a single one before drawing.
+     * Timeline looks the same, but number of draw calls is bounded by view width rather than
+     * number of records. Useful for 7 and 30 days intervals, where most of records are
+     * narrower than a pixel.
+     */
+    public void setLevelOfDetailEnabled(boolean enabled) {
+        _levelOfDetail = enabled;
+        _needUpdate = true;
+    }
+
+    public boolean isLevelOfDetailEnabled() {
+        return _levelOfDetail;
+    }
+
+    /**
+     * Enables smooth pinch zoom keeping time under fingers in place instead of switching to
+     * the next fixed interval when gesture ends. While pinching, layout uses binary search
+     * culling and level of detail and bypasses tile cache, so frame cost depends on view width
+     * and visible records only. Binary search requires records sorted in descending order.
+     */
+    public void setContinuousZoomEnabled(boolean enabled) {
+        _continuousZoom = enabled;
+    }
+
+    public boolean isContinuousZoomEnabled() {
+        return _continuousZoom;
+    }
+
+    /**
+     * Enables drawing of major records grouped by color, a single path and a single set of lines
+     * per color. Number of draw calls depends on number of distinct colors, not records.
+     * Overlapping records of different colors may be drawn in a different order.
+     */
+    public void setColorBatchingEnabled(boolean enabled) {
+        _colorBatching = enabled;
+    }
+
+    public boolean isColorBatchingEnabled() {
+        return _colorBatching;
+    }
+
+    /**
+     * Enables caching of record layers rasterized into bitmap tiles of fixed duration.
+     * While panning cached tiles are drawn with a translation instead of drawing every record,
+     * tiles are rasterized again only when records, zoom or view size change.
+     * Records on the left side of the view are drawn without clamping to its edge.
+     * @param maxBytes maximum size of all cached bitmaps in bytes, 0 to disable tiles
+     */
+    public void setTileCacheSize(int maxBytes) {
+        _tileCache = maxBytes > 0 ? new RecordTileCache(maxBytes, this::renderTile) : null;
+        _needUpdate = true;
+        invalidate();
+    }
+
+    public boolean isTileCacheEnabled() {
+        return _tileCache != null;
+    }
+
+    private void invalidateTiles(int layer) {
+        if (_tileCache != null)
+            _tileCache.invalidate(layer);
+    }
+
+    /**
+     * Enables coverage summaries at 1 min, 5 min, 1 hour, 6 hours and 1 day buckets built once
+     * records are set. When a bucket is not wider than a pixel, records are drawn from the
+     * coarsest such summary, so zoomed out timeline costs the same at any number of records.
+     * Summaries are built on the layout executor if it is set, otherwise on the UI thread.
+     */
+    public void setCoveragePyramidEnabled(boolean enabled) {
+        if (_coveragePyramid == enabled)
+            return;
+        _coveragePyramid = enabled;
+        for (TimelineTrack track : _tracks)
+            putTrackLayer(track.id, track.layer.withPyramid(false));
+        _needUpdate = true;
+    }
+
+    public boolean isCoveragePyramidEnabled() {
+        return _coveragePyramid;
+    }
+
+    /**
+     * If enabled, set*Records() and append*() throw IllegalArgumentException when records are
+     * not sorted in descending order. Otherwise (default) such records are sorted, and batches of
+     * 50000+ records are sorted in parallel on API 24+ and on the layout executor if it is set.
+     * Records sorted on executor are set once sorted, the previous ones are drawn meanwhile.
+     */
+    public void setStrictRecordOrder(boolean enabled) {
+        _strictRecordOrder = enabled;
+    }
+
+    public boolean isStrictRecordOrder() {
+        return _strictRecordOrder;
+    }
+
+    /**
+     * Draws major1 records as density heatmap at intervals not shorter than the specified one,
+     * e.g. INTERVAL_DAY_7. Number of records overlapping every pixel is shown with heatmap colors,
+     * so dense events remain distinguishable when they are narrower than a pixel.
+     * @param minIntervalMsec interval to start drawing heatmap from, 0 to disable
+     */
+    public void setMajor1HeatmapInterval(long minIntervalMsec) {
+        _heatmapMinIntervalMsec = minIntervalMsec;
+        _needUpdate = true;
+    }
+
+    public long getMajor1HeatmapInterval() {
+        return _heatmapMinIntervalMsec;
+    }
+
+    /**
+     * Sets heatmap colors from the lowest density to the highest one. Color i is used for
+     * [2^i, 2^(i+1)) records started per pixel, the last one for all denser pixels.
+     */
+    public void setMajor1HeatmapColors(@NonNull int[] colors) {
+        if (colors.length == 0)
+            throw new IllegalArgumentException("Heatmap colors are empty");
+        _heatmapColors = colors.clone();
+        _needUpdate = true;
+    }
+
+    /**
+     * Enables coverage bitset of background records, a bit per bucketMsec set if any record
+     * overlaps it. Bitset answers isRecordedAt(), getNextGapMsec() and getNextRecordedMsec() in
+     * constant time with bucket precision, and is extended as records are appended. When a bucket
+     * is not wider than a pixel, background is drawn from bitset, so overlapping records are
+     * drawn as a single span. Bitset is not built if records span more than ~268M buckets.
+     * @param bucketMsec bucket size, e.g. 1000 for 1 second, 0 to disable
+     */
+    public void setBackgroundCoverageBucket(long bucketMsec) {
+        if (bucketMsec < 0)
+            throw new IllegalArgumentException("Bucket size should not be negative");
+        _backgroundCoverageMsec = bucketMsec;
+        putTrackLayer(LAYER_BACKGROUND, getLayer(LAYER_BACKGROUND).withCoverage(bucketMsec));
+        _needUpdate = true;
+    }
+
+    public long getBackgroundCoverageBucket() {
+        return _backgroundCoverageMsec;
+    }
+
+    /**
+     * Returns whether there is a background record at the specified time. With coverage bitset
+     * enabled, answer has bucket precision.
+     */
+    public boolean isRecordedAt(long timestampMsec) {
+        RecordLayer layer = getLayer(LAYER_BACKGROUND);
+        CoverageBitset coverage = layer.coverage;
+        if (coverage != null)
+            return coverage.contains(timestampMsec);
+        return layer.index.getContainingIndex(timestampMsec, false) >= 0;
+    }
+
+    /**
+     * Returns timestampMsec if there are no background records at it, otherwise the end of
+     * background records continuously covering it.
+     */
+    public long getNextGapMsec(long timestampMsec) {
+        RecordLayer layer = getLayer(LAYER_BACKGROUND);
+        CoverageBitset coverage = layer.coverage;
+        if (coverage != null)
+            return coverage.getNextGapMsec(timestampMsec);
+        int index;
+        while ((index = layer.index.getContainingIndex(timestampMsec, false)) >= 0)
+            timestampMsec = layer.store.getEndMsec(index);
+        return timestampMsec;
+    }
+
+    /**
+     * Returns timestampMsec if there is a background record at it, otherwise start of the
+     * next background record or -1 if there is none.
+     */
+    public long getNextRecordedMsec(long timestampMsec) {
+        RecordLayer layer = getLayer(LAYER_BACKGROUND);
+        CoverageBitset coverage = layer.coverage;
+        if (coverage != null)
+            return coverage.getNextCoverageMsec(timestampMsec);
+        if (layer.index.getContainingIndex(timestampMsec, false) >= 0)
+            return timestampMsec;
+        // Suppose all records sorted
+        int index = layer.index.getFirstIndexStartedNotAfter(timestampMsec);
+        return index > 0 ? layer.store.getTimestampMsec(index - 1) : -1;
+    }
+
+    /**
+     * Sets loader of thumbnails drawn over background records at 1 to 15 min intervals,
+     * one per time bucket having background records. Thumbnails are loaded on the executor,
+     * placeholders are drawn until they are loaded.
+     * @param loader loader or null to remove thumbnails
+     * @param executor executor to load and scale thumbnails on, e.g. single thread executor
+     * @param maxBytes size of thumbnails cache in bytes
+     */
+    public void setThumbnailLoader(
+            @Nullable TimelineThumbnailLoader loader,
+            @NonNull Executor executor,
+            int maxBytes) {
+        if (_thumbnails != null)
+            _thumbnails.clear();
+        _thumbnails = loader != null
+                ? new ThumbnailStrip(loader, executor, this::post, maxBytes, this::postInvalidateOnAnimation)
+                : null;
+        invalidate();
+    }
+
+    /**
+     * Drops loaded thumbnails, e.g. after recordings were changed, so they are loaded again.
+     */
+    public void clearThumbnails() {
+        if (_thumbnails != null) {
+            _thumbnails.clear();
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets executor to compute layout of records off the UI thread, e.g. single thread executor.
+     * onDraw() draws the latest computed layout, so records may lag behind by a frame.
+     * Only the latest requested layout is computed and drawn, older requests are dropped.
+     * If null (default), layout is computed on the UI thread in onDraw().
+     * Unsorted batches of 50000 or more records passed to set*Records() are sorted on the
+     * executor as well. Until they are sorted, the layer and get*Records()/get*Store() keep the
+     * previous records, and records passed to appendNewer() or appendOlder() are added after.
+     */
+    public void setLayoutExecutor(@Nullable Executor executor) {
+        _layoutExecutor = executor;
+        _layoutGeneration.incrementAndGet();
+        _pendingLayout.set(null);
         _needUpdate = true;
     }
 
     @NonNull
     public ArrayList<TimeRecord> getMajor1Records() {
+        if (_recordsMajor1 == null)
+            _recordsMajor1 = new ArrayList<>(getRecordList(getLayer(LAYER_MAJOR1).store));
         return _recordsMajor1;
     }
 
@@ -289,32 +1137,102 @@ public class TimelineView extends View {
 
     @NonNull
     public ArrayList<TimeRecord> getBackgroundRecords() {
+        if (_recordsBackground == null)
+            _recordsBackground = new ArrayList<>(getRecordList(getLayer(LAYER_BACKGROUND).store));
         return _recordsBackground;
     }
 
-//    private synchronized void checkRecordsDescending(@NonNull ArrayList<TimeRecord> records) {
-//        TimeRecord prevRecord = null;
-////        int i = 0;
-//        for (TimeRecord record : records) {
-////            if (prevRecord != null && prevRecord.timestampMsec < record.timestampMsec)
-////                Log.e("ZZZ", "[" + i + "] Timestamp: " + record.timestampMsec + " " + record.object.toString());
-////            else if (prevRecord != null && prevRecord.timestampMsec == record.timestampMsec)
-////                Log.w("ZZZ", "[" + i + "] Timestamp: " + record.timestampMsec + " " + record.object.toString());
-////            else
-////                Log.i("ZZZ", "[" + i + "] Timestamp: " + record.timestampMsec + " " + record.object.toString());
-////            i++;
-//            if (prevRecord != null) {
-//                Assert.assertTrue(
-//                        "prev " + prevRecord.timestampMsec + " >= " + record.timestampMsec +
-//                        " is false. Prev " + prevRecord.object.toString() + ", cur " + record.object.toString(),
-//                        prevRecord.timestampMsec >= record.timestampMsec);
-//
-//            }
-//            prevRecord = record;
-//        }
-//    }
+    @NonNull
+    private static List<TimeRecord> getRecordList(@NonNull TimeRecordStore store) {
+        List<TimeRecord> records = store.getRecords();
+        return records != null ? records : Collections.<TimeRecord>emptyList();
+    }
+
+    @NonNull
+    public TimeRecordStore getMajor1Store() {
+        return getLayer(LAYER_MAJOR1).store;
+    }
+
+    @NonNull
+    public TimeRecordStore getMajor2Store() {
+        return getLayer(LAYER_MAJOR2).store;
+    }
 
+    @NonNull
+    public TimeRecordStore getBackgroundStore() {
+        return getLayer(LAYER_BACKGROUND).store;
+    }
+
+    /**
+     * Sets records of the layer sorted in descending order. Unsorted records are sorted, or
+     * reported in strict mode. Large batches are sorted on the layout executor if it is set.
+     */
+    private void setRecords(int layer, @NonNull TimeRecordStore store) {
+        final int generation = ++_setRecordsGenerations[layer];
+        // Records appended to the previous records sorted on executor are dropped with them
+        _pendingAppends[layer] = null;
+        if (checkRecordsDescending(store)) {
+            replaceLayer(layer, new RecordLayer(store, false));
+            return;
+        }
+        final boolean parallel = store.size() >= PARALLEL_SORT_MIN_RECORDS &&
+                                 Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        Executor executor = _layoutExecutor;
+        if (executor == null || store.size() < PARALLEL_SORT_MIN_RECORDS) {
+            replaceLayer(layer, new RecordLayer(store.sortDescending(parallel), false));
+            return;
+        }
+        final boolean withPyramid = _coveragePyramid;
+        _pendingAppends[layer] = new ArrayList<>();
+        executor.execute(() -> {
+            final RecordLayer recordLayer = new RecordLayer(store.sortDescending(parallel), withPyramid);
+            post(() -> {
+                // Skip if newer records were set meanwhile
+                if (generation != _setRecordsGenerations[layer])
+                    return;
+                ArrayList<PendingAppend> pending = _pendingAppends[layer];
+                _pendingAppends[layer] = null;
+                replaceLayer(layer, _coveragePyramid ? recordLayer : recordLayer.withPyramid(false));
+                if (pending != null) {
+                    for (PendingAppend append : pending)
+                        setLayer(layer, append(getLayer(layer), append.records, append.older), append.records);
+                }
+                invalidate();
+            });
+        });
+    }
+
+    /**
+     * Returns whether records are sorted in descending order. In strict mode throws otherwise.
+     */
+    private boolean checkRecordsDescending(@NonNull TimeRecordStore store) {
+        int index = store.findFirstUnsorted();
+        if (index < 0)
+            return true;
+        if (_strictRecordOrder)
+            throw new IllegalArgumentException(
+                    "Records are not sorted in descending order. Record " + index + " started at " +
+                    store.getTimestampMsec(index) + " is newer than the previous one started at " +
+                    store.getTimestampMsec(index - 1));
+        return false;
+    }
+
+    private void replaceLayer(int layer, @NonNull RecordLayer recordLayer) {
+        RecordLayer prevLayer = getLayer(layer);
+        putLayer(layer, recordLayer);
+        onRecordsChanged(layer, prevLayer);
+        _needUpdate = true;
+    }
+
+    /**
+     * Sets selected time. Drops live mode.
+     */
     public void setCurrent(long currentMsec) {
+        setLiveMode(false);
+        setSelectedMsec(currentMsec);
+    }
+
+    private void setSelectedMsec(long currentMsec) {
 //      Log.i("ZZZ", "currentMsec: " + currentMsec);
 //      if (Math.abs(_selectedMsec - currentMsec) > 10000)
 //          Log.w("ZZZ", "currentMsec diff: " + Math.abs(_selectedMsec - currentMsec));
@@ -324,19 +1242,43 @@ public class TimelineView extends View {
         _needUpdate = true;
     }
 
-    public void setCurrentWithAnimation(long currentMsec) {
-        cancelAnimation();
-        long offset = (currentMsec - _selectedMsec) / 1000L;
-        _animator = ValueAnimator.ofInt(0, (int)offset);
-        _animator.setDuration(ANIMATION_DURATION_MSEC);
-        _animator.setInterpolator(new AccelerateDecelerateInterpolator());
-        final long targetMsec = _selectedMsec;
-        _animator.addUpdateListener(animation -> {
-            Integer value = (Integer) animation.getAnimatedValue();
-            setCurrent(targetMsec + (long)value * 1000L);
+    /**
+     * Keeps selected time at now. View is redrawn only when now moved by a pixel at the current
+     * interval, and records are shifted on redraw instead of being projected again.
+     * Mode is dropped when timeline is touched or current time is set via setCurrent() or
+     * setCurrentWithAnimation(), the listener is notified then.
+     */
+    public void setLiveMode(boolean enabled) {
+        if (_liveMode == enabled)
+            return;
+        _liveMode = enabled;
+        removeCallbacks(_liveRunnable);
+        if (enabled) {
+            _animator.cancelTime();
+            setSelectedMsec(System.currentTimeMillis());
             invalidate();
-        });
-        _animator.start();
+            postOnAnimation(_liveRunnable);
+        }
+        if (_liveModeListener != null)
+            _liveModeListener.onLiveModeChanged(enabled);
+    }
+
+    public void setOnLiveModeChangedListener(@Nullable OnLiveModeChangedListener listener) {
+        _liveModeListener = listener;
+    }
+
+    public boolean isLiveMode() {
+        return _liveMode;
+    }
+
+    /**
+     * Animates selected time to the specified one. Drops live mode.
+     */
+    public void setCurrentWithAnimation(long currentMsec) {
+        setLiveMode(false);
+        _animator.startPan(
+                _selectedMsec, currentMsec, AnimationUtils.currentAnimationTimeMillis(), ANIMATION_DURATION_MSEC);
+        postAnimation();
     }
 
     public long getCurrent() {
@@ -444,24 +1386,41 @@ public class TimelineView extends View {
     }
 
     public void setIntervalWithAnimation(long intervalMsec) {
-        cancelAnimation();
-        long offset = intervalMsec - _intervalMsec;
-        _animator = ValueAnimator.ofInt(0, (int)offset);
-        _animator.setDuration(ANIMATION_DURATION_MSEC);
-        _animator.setInterpolator(new AccelerateDecelerateInterpolator());
-        final long targetMsec = _intervalMsec;
-        _animator.addUpdateListener(animation -> {
-            Integer value = (Integer) animation.getAnimatedValue();
-            setInterval(targetMsec + (long)value);
-            invalidate();
-        });
-        _animator.start();
+        _animator.startZoom(
+                _intervalMsec, intervalMsec, AnimationUtils.currentAnimationTimeMillis(), ANIMATION_DURATION_MSEC);
+        postAnimation();
+    }
+
+    /**
+     * Scales interval keeping time at the specified x position in place.
+     */
+    private void zoomAt(float focusX, float scaleFactor) {
+        int width = getWidth();
+        if (width == 0 || scaleFactor <= 0f)
+            return;
+        float offsetInPixels = focusX - width / 2f;
+        long focusMsec = _selectedMsec + (long) (offsetInPixels * (_intervalMsec / (double) width));
+        setInterval((long) (_intervalMsec / (double) scaleFactor));
+        setCurrent(focusMsec - (long) (offsetInPixels * (_intervalMsec / (double) width)));
+        invalidate();
     }
 
     private void cancelAnimation() {
-        if (_animator != null) {
-            _animator.cancel();
-            _animator = null;
+        _animator.cancel();
+        removeCallbacks(_animationRunnable);
+        _animationPosted = false;
+    }
+
+    private void cancelFling() {
+        _animator.cancelTime();
+        _gestureListener._waitForNextActionUp = true;
+        _selectedRunnable.run();
+    }
+
+    private void postAnimation() {
+        if (!_animationPosted) {
+            _animationPosted = true;
+            postOnAnimation(_animationRunnable);
         }
     }
 
@@ -470,202 +1429,157 @@ public class TimelineView extends View {
     }
 
     private void update() {
-        _rectMajor1Selected = null;
-        _rectMajor2Selected = null;
-        _rectsMajor1.clear();
-        _rectsMajor2.clear();
-        _rectsBackground.clear();
-
-        int width  = getWidth();
-        int height = getHeight();
-
-        long minValue = _selectedMsec - _intervalMsec / 2;
-        long maxValue = _selectedMsec + _intervalMsec / 2;
-        float msecInPixels = width / (float)_intervalMsec;
-
-        boolean isLandscape = isLandscape();
-        int offsetBackground = (int)((isLandscape ? 2.6 : 3.4) * OFFSET_TOP_BOTTOM * _density);
-        int offsetMajor1     = (int)((isLandscape ? 2.6 : 3.4) * OFFSET_TOP_BOTTOM * _density);
-        int offsetMajor2     = (int)((isLandscape ? 3.2 : 4.2) * OFFSET_TOP_BOTTOM * _density);
-
-        _rectNoData.set(
-                0, // left
-                offsetMajor1, // top
-                Math.min((int)((System.currentTimeMillis() - minValue) * msecInPixels), width), // right
-                height - offsetMajor1); // bottom
-
-
-        for (TimeRecord record : _recordsMajor1) {
-            if ((record.timestampMsec + record.durationMsec) >= minValue &&
-                (record.timestampMsec) <= maxValue) {
-
-                DrawRect rect = new DrawRect(
-                        Math.max((int) ((record.timestampMsec - minValue) * msecInPixels), 0), // left
-                        offsetMajor1, // top
-                        Math.min((int) ((record.timestampMsec - minValue + record.durationMsec) * msecInPixels), width), // right
-                        height - offsetMajor1); // bottom
-
-                if (_rectMajor1Selected == null &&
-                    _selectedMsec >= record.timestampMsec &&
-                    _selectedMsec < (record.timestampMsec + record.durationMsec)) {
-
-                    _rectMajor1Selected = rect;
-                } else {
-                    rect.color = record.color;
-                    _rectsMajor1.add(rect);
-                }
-            }
-        }
-        // Check if we need more older records to load
-        if (_recordsMajor1.size() > 0) {
-            // Get the last record (oldest one)
-            TimeRecord record = _recordsMajor1.get(_recordsMajor1.size() - 1);
-            if (minValue < record.timestampMsec) {
-                _listener.onRequestMoreMajor1Data();
-            }
+        applyRetentionPolicy();
+        if (_layoutExecutor == null) {
+            setLayoutParams(_layout);
+            _layout.layout();
+            requestMoreDataIfNeeded(_layout);
+        } else {
+            requestLayoutAsync(_layoutExecutor);
         }
+    }
 
+    private void setLayoutParams(@NonNull TimelineLayout layout) {
+        boolean isLandscape = isLandscape();
+        layout.selectedMsec = _selectedMsec;
+        layout.intervalMsec = _intervalMsec;
+        layout.nowMsec = System.currentTimeMillis();
+        layout.width = getWidth();
+        layout.height = getHeight();
+        int offsetMajor1 = (int)((isLandscape ? 2.6 : 3.4) * OFFSET_TOP_BOTTOM * _density);
+        setLayerInset(LAYER_BACKGROUND, offsetMajor1);
+        setLayerInset(LAYER_MAJOR1, offsetMajor1);
+        setLayerInset(LAYER_MAJOR2, (int)((isLandscape ? 3.2 : 4.2) * OFFSET_TOP_BOTTOM * _density));
+        layout.offsetNoData = offsetMajor1;
+        // Major rectangles have line drawn on left side, 2dp width
+        layout.lineHalfWidth = (int)Math.ceil(_density);
+        // Interval changes every frame while pinching or animating zoom, so tiles would be
+        // rasterized every frame
+        layout.binarySearchCulling = _binarySearchCulling || _scaling;
+        layout.levelOfDetail = _levelOfDetail || _scaling;
+        layout.buildRects = _tileCache == null || _scaling || _animator.isZooming();
+        layout.coveragePyramid = _coveragePyramid || _scaling;
+        layout.tracks = _tracks;
+        layout.heatmapMinIntervalMsec = _heatmapMinIntervalMsec;
+        layout.heatmapColors = _heatmapColors;
+    }
 
-        for (TimeRecord record : _recordsMajor2) {
-            if ((record.timestampMsec + record.durationMsec) >= minValue &&
-                (record.timestampMsec) <= maxValue) {
-
-                DrawRect rect = new DrawRect(
-                        Math.max((int) ((record.timestampMsec - minValue) * msecInPixels), 0), // left
-                        offsetMajor2, // top
-                        Math.min((int) ((record.timestampMsec - minValue + record.durationMsec) * msecInPixels), width), // right
-                        height - offsetMajor2); // bottom
-
-                if (_rectMajor2Selected == null &&
-                    _selectedMsec >= record.timestampMsec &&
-                    _selectedMsec <= (record.timestampMsec + record.durationMsec)) {
-
-                    _rectMajor2Selected = rect;
-                } else {
-                    rect.color = record.color;
-                    _rectsMajor2.add(rect);
+    private void requestLayoutAsync(@NonNull Executor executor) {
+        TimelineLayout free = _freeLayout.getAndSet(null);
+        final TimelineLayout layout = free != null ? free : new TimelineLayout();
+        setLayoutParams(layout);
+        final int generation = _layoutGeneration.incrementAndGet();
+        executor.execute(() -> {
+            // Skip if newer layout already requested
+            if (generation == _layoutGeneration.get()) {
+                layout.layout();
+                if (generation == _layoutGeneration.get()) {
+                    TimelineLayout prev = _pendingLayout.getAndSet(layout);
+                    if (prev != null)
+                        _freeLayout.set(prev);
+                    postInvalidateOnAnimation();
+                    return;
                 }
             }
-        }
-        // Check if we need more older records to load
-        if (_recordsMajor2.size() > 0) {
-            // Get the last record (oldest one)
-            TimeRecord record = _recordsMajor2.get(_recordsMajor2.size() - 1);
-            if (minValue < record.timestampMsec) {
-                _listener.onRequestMoreMajor2Data();
-            }
-        }
-
-        for (TimeRecord record : _recordsBackground) {
-            if ((record.timestampMsec + record.durationMsec) >= minValue &&
-                (record.timestampMsec) <= maxValue) {
+            _freeLayout.set(layout);
+        });
+    }
 
-                DrawRect rect = new DrawRect(
-                        Math.max((int)((record.timestampMsec - minValue) * msecInPixels), 0), // left
-                        offsetBackground, // top
-                        Math.min((int)((record.timestampMsec - minValue + record.durationMsec) * msecInPixels), width), // right
-                        height - offsetBackground); // bottom
+    private void requestMoreDataIfNeeded(@NonNull TimelineLayout layout) {
+        if (_dataSource != null)
+            requestDataSourceRanges(_dataSource, layout);
+        if (_listener == null)
+            return;
+        // Check if we need more older records to load. A layer is requested again only after
+        // the previous request completed and not more often than the minimum interval.
+        long nowMsec = SystemClock.uptimeMillis();
+        if (layout.needMoreData[LAYER_MAJOR1] && _moreDataRequests.tryRequest(LAYER_MAJOR1, nowMsec))
+            _listener.onRequestMoreMajor1Data();
+        if (layout.needMoreData[LAYER_MAJOR2] && _moreDataRequests.tryRequest(LAYER_MAJOR2, nowMsec))
+            _listener.onRequestMoreMajor2Data();
+        if (layout.needMoreData[LAYER_BACKGROUND] && _moreDataRequests.tryRequest(LAYER_BACKGROUND, nowMsec))
+            _listener.onRequestMoreBackgroundData();
+    }
 
-                rect.color = record.color;
-                _rectsBackground.add(rect);
-            }
-//            // Skip processing not shown older records
-//            if (minValue > record.timestampMsec) {
-//                break;
-//            }
-        }
-        // Check if we need more older records to load
-        if (_recordsBackground.size() > 0) {
-            // Get the last record (oldest one)
-            TimeRecord record = _recordsBackground.get(_recordsBackground.size() - 1);
-            if (minValue < record.timestampMsec) {
-                _listener.onRequestMoreBackgroundData();
+    /**
+     * Requests pages of the visible range plus prefetch margin not requested yet, newest first.
+     */
+    private void requestDataSourceRanges(@NonNull TimelineDataSource source, @NonNull TimelineLayout layout) {
+        long pageMsec = _dataSourcePageMsec;
+        long fromMsec = layout.selectedMsec - layout.intervalMsec / 2 - _dataSourcePrefetchMsec;
+        long toMsec = Math.min(layout.selectedMsec + layout.intervalMsec / 2 + _dataSourcePrefetchMsec, layout.nowMsec);
+        if (fromMsec >= toMsec)
+            return;
+        long firstPage = Math.floorDiv(fromMsec, pageMsec);
+        long lastPage = Math.floorDiv(toMsec - 1, pageMsec);
+        for (int layer = 0; layer < _loadedRanges.length; layer++) {
+            LoadedRangeTracker tracker = _loadedRanges[layer];
+            if (tracker.contains(firstPage * pageMsec, (lastPage + 1) * pageMsec))
+                continue;
+            for (long page = lastPage; page >= firstPage; page--) {
+                long pageFromMsec = page * pageMsec;
+                long pageToMsec = pageFromMsec + pageMsec;
+                if (!tracker.contains(pageFromMsec, pageToMsec)) {
+                    tracker.add(pageFromMsec, pageToMsec);
+                    source.onRequestRecords(layer, pageFromMsec, pageToMsec);
+                }
             }
         }
     }
 
-//    private static void convertRecordsToRects(
-//            @NonNull ArrayList<TimeRecord> records,
-//            @NonNull ArrayList<Rect> rects,
-//                     int offsetTopBottom) {
-//
-//        rects.clear();
-//
-//        for (TimeRecord record : records) {
-//            if ((record.timestampMsec + record.durationMsec) >= minValue &&
-//                    (record.timestampMsec) <= maxValue) {
-//
-//                Rect rect = new Rect(Math.max((int) ((record.timestampMsec - minValue) * msecInPixels), 0), // left
-//                        offsetMajor, // top
-//                        Math.min((int) ((record.timestampMsec - minValue + record.durationMsec) * msecInPixels), width), // right
-//                        height - offsetMajor); // bottom
-//
-//                if (_selectedMsec >= record.timestampMsec && _selectedMsec <= (record.timestampMsec + record.durationMsec)) {
-//                    _rectMajor1Selected = rect;
-//                } else {
-//                    _rectsMajor1.add(rect);
-//                }
-//            }
-//        }
-//    }
+    @Nullable
+    private static TimeRecord getRecord(
+            long timestampMsec,
+            @NonNull RecordIndex index,
+            @NonNull TimeRecordStore store) {
+        return getRecordAt(index.getContainingIndex(timestampMsec, false), store);
+    }
 
     @Nullable
-    private static TimeRecord getRecord(long timestampMsec, @NonNull ArrayList<TimeRecord> records) {
-        for (TimeRecord record : records) {
-            if (timestampMsec >= record.timestampMsec &&
-                timestampMsec < (record.timestampMsec + record.durationMsec)) {
-                return record;
-            }
-        }
-        return null;
+    private static TimeRecord getRecordAt(int index, @NonNull TimeRecordStore store) {
+        return index >= 0 ? store.getRecord(index) : null;
     }
 
     @Nullable
     public TimeRecord getNextMajorRecord() {
-        return getNextRecord(_selectedMsec + 1000 /*magic constant, 1 sec*/, _recordsMajor1);
+        RecordLayer layer = getLayer(LAYER_MAJOR1);
+        return getNextRecord(_selectedMsec + 1000 /*magic constant, 1 sec*/, layer.index, layer.store);
     }
 
     @Nullable
     public TimeRecord getPrevMajorRecord() {
-        return getPrevRecord(_selectedMsec - 30000 /*magic constant, 30 sec*/, _recordsMajor1);
+        RecordLayer layer = getLayer(LAYER_MAJOR1);
+        return getPrevRecord(_selectedMsec - 30000 /*magic constant, 30 sec*/, layer.index, layer.store);
     }
 
     @Nullable
     public TimeRecord getNextBackgroundRecord() {
-        return getNextRecord(_selectedMsec, _recordsBackground);
+        RecordLayer layer = getLayer(LAYER_BACKGROUND);
+        return getNextRecord(_selectedMsec, layer.index, layer.store);
     }
 
     @Nullable
     public TimeRecord getCurrentBackgroundRecord() {
-        return getRecord(_selectedMsec, _recordsBackground);
+        RecordLayer layer = getLayer(LAYER_BACKGROUND);
+        return getRecord(_selectedMsec, layer.index, layer.store);
     }
 
     @Nullable
-    private static TimeRecord getNextRecord(long currentMsec, @NonNull ArrayList<TimeRecord> records) {
-        TimeRecord prevRecord = null;
-//        if (records.size() == 1 && currentMsec < records.get(0).timestampMsec)
-//            return records.get(0);
+    private static TimeRecord getNextRecord(
+            long currentMsec,
+            @NonNull RecordIndex index,
+            @NonNull TimeRecordStore store) {
         // Suppose all events sorted
-        for (TimeRecord record : records) {
-            if (prevRecord != null &&
-                currentMsec < prevRecord.timestampMsec &&
-                currentMsec >= record.timestampMsec) {
-
-                return prevRecord;
-            }
-            prevRecord = record;
-        }
-        return null;
+        return getRecordAt(index.getNextIndex(currentMsec), store);
     }
 
     @Nullable
-    private static TimeRecord getPrevRecord(long currentMsec, @NonNull ArrayList<TimeRecord> records) {
+    private static TimeRecord getPrevRecord(
+            long currentMsec,
+            @NonNull RecordIndex index,
+            @NonNull TimeRecordStore store) {
         // Suppose all events sorted
-        for (TimeRecord record : records) {
-            if (record.timestampMsec < currentMsec)
-                return record;
-        }
-        return null;
+        return getRecordAt(index.getPrevIndex(currentMsec), store);
     }
 
     private final Runnable _selectingRunnable = () -> {
@@ -676,21 +1590,81 @@ public class TimelineView extends View {
 
     private final Runnable _selectedRunnable = () -> {
         if (_listener != null) {
-            TimeRecord record = getRecord(_selectedMsec, _recordsBackground);
+            RecordLayer layer = getLayer(LAYER_BACKGROUND);
+            TimeRecord record = getRecord(_selectedMsec, layer.index, layer.store);
             _listener.onTimeSelected(_selectedMsec, record);
         }
     };
 
+    // Moves selected time to now without layout, onDraw() shifts records of the previous one
+    private final Runnable _liveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!_liveMode)
+                return;
+            long nowMsec = System.currentTimeMillis();
+            _selectedMsec = nowMsec;
+            _selectedMsecDate.setTime(nowMsec);
+            int width = Math.max(getWidth(), 1);
+            TimelineLayout layout = _layout;
+            if (layout.intervalMsec > 0 &&
+                Math.abs(nowMsec - layout.selectedMsec) * width / layout.intervalMsec >= LIVE_RELAYOUT_PIXELS)
+                _needUpdate = true;
+            invalidate();
+            postOnAnimationDelayed(this, Math.max(LIVE_MIN_FRAME_MSEC, _intervalMsec / width));
+        }
+    };
+
+    // Applies all running animations once per frame
+    private final Runnable _animationRunnable = () -> {
+        _animationPosted = false;
+        boolean flinging = _animator.getTimeKind() == TimelineAnimator.TIME_FLING;
+        int animated = _animator.step(AnimationUtils.currentAnimationTimeMillis());
+        if ((animated & TimelineAnimator.ANIMATED_TIME) != 0)
+            setSelectedMsec(_animator.getTimeMsec());
+        if ((animated & TimelineAnimator.ANIMATED_INTERVAL) != 0)
+            setInterval(_animator.getIntervalMsec());
+        if (animated != 0)
+            invalidate();
+        if (flinging && _animator.getTimeKind() != TimelineAnimator.TIME_FLING)
+            _selectedRunnable.run();
+        if (_animator.isRunning())
+            postAnimation();
+    };
+
     private final ScaleGestureDetector.SimpleOnScaleGestureListener _scaleListener = new ScaleGestureDetector.SimpleOnScaleGestureListener() {
-//        @Override
-//        public boolean onScale(ScaleGestureDetector detector) {
-//            setInterval((long) (_intervalMsec * (2f - detector.getScaleFactor())));
-//            return true;
-//        }
+        @Override
+        public boolean onScaleBegin(ScaleGestureDetector detector) {
+            if (_continuousZoom) {
+                _animator.cancelZoom();
+                _scaling = true;
+                if (isPyramidRequired())
+                    requestPyramids();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            // Otherwise scale factor is accumulated for the whole gesture and applied at its end
+            if (!_scaling)
+                return false;
+            zoomAt(detector.getFocusX(), detector.getScaleFactor());
+            removeCallbacks(_selectedRunnable);
+            post(_selectingRunnable);
+            return true;
+        }
 
         @Override
         public void onScaleEnd(ScaleGestureDetector detector) {
-            if (detector.getScaleFactor() > 1f)
+            if (_scaling) {
+                _scaling = false;
+                // Redraw with the regular layout settings
+                _needUpdate = true;
+                invalidate();
+                removeCallbacks(_selectedRunnable);
+                postDelayed(_selectedRunnable, 500);
+            } else if (detector.getScaleFactor() > 1f)
                 decreaseIntervalWithAnimation();
             else
                 increaseIntervalWithAnimation();
@@ -708,7 +1682,8 @@ public class TimelineView extends View {
         public boolean onScroll(MotionEvent e1, MotionEvent e2,
                                 float distanceX, float distanceY) {
 //          Log.i("ZZZ", "onScroll()");
-            if (_waitForNextActionUp)
+            // Continuous zoom keeps focal point in place, which already moves the timeline
+            if (_waitForNextActionUp || _scaling)
                 return false;
             float msecInPixels = _intervalMsec / (float)getWidth();
             long offsetInMsec = (long) (msecInPixels * distanceX);
@@ -735,39 +1710,18 @@ public class TimelineView extends View {
 
             // Search if clicked on major2 record first
             long newSelectedMsec = _selectedMsec + offsetInMsec;
-            boolean foundMajor2 = false;
-            for (TimeRecord record : _recordsMajor2) {
-                // On event clicked. Search for the beginning of the event.
-                if (newSelectedMsec >= record.timestampMsec &&
-                    newSelectedMsec <= (record.timestampMsec + record.durationMsec)) {
-
-                    newSelectedMsec = record.timestampMsec;
-                    foundMajor2 = true;
-                    break;
-                }
-            }
-
-            // Search if clicked on major1 record or between major1 records
-            if (!foundMajor2) {
-                TimeRecord prevRecord = null;
-                for (TimeRecord record : _recordsMajor1) {
-                    // On event clicked. Search for the beginning of the event.
-                    if (newSelectedMsec >= record.timestampMsec &&
-                        newSelectedMsec <= (record.timestampMsec + record.durationMsec)) {
-
-                        newSelectedMsec = record.timestampMsec;
-                        break;
-
-                    // On space clicked. Search for the next event.
-                    } else if (prevRecord != null &&
-                            newSelectedMsec > (record.timestampMsec + record.durationMsec) &&
-                            newSelectedMsec < prevRecord.timestampMsec) {
-
-                        newSelectedMsec = prevRecord.timestampMsec;
-                        break;
-                    }
-                    prevRecord = record;
-                }
+            // On event clicked. Search for the beginning of the event.
+            RecordLayer major2 = getLayer(LAYER_MAJOR2);
+            int index = major2.index.getContainingIndex(newSelectedMsec, true);
+            if (index >= 0) {
+                newSelectedMsec = major2.store.getTimestampMsec(index);
+            } else {
+                // Search if clicked on major1 record or between major1 records.
+                // On space clicked. Search for the next event.
+                RecordLayer major1 = getLayer(LAYER_MAJOR1);
+                index = major1.index.getContainingOrNextIndex(newSelectedMsec);
+                if (index >= 0)
+                    newSelectedMsec = major1.store.getTimestampMsec(index);
             }
             setCurrentWithAnimation(newSelectedMsec);
             removeCallbacks(_selectedRunnable);
@@ -785,52 +1739,16 @@ public class TimelineView extends View {
 
         private boolean _waitForNextActionUp = false;
 
-        boolean isAnimating() {
-            return scrollAnimator != null && scrollAnimator.isRunning();
-        }
-        void cancelAnimation() {
-            if (scrollAnimator != null)
-                scrollAnimator.cancel();
-        }
-
         private static final float FLING_X_MULTIPLIER = 0.00018f;
         private static final float FLING_DURATION_MULTIPLIER = 0.15f;
-        private final Interpolator INTERPOLATOR = new DecelerateInterpolator(1.4f);
-        private ValueAnimator scrollAnimator;
-        private long savedValue;
 
         private void runFlingAnimation(float velocity) {
-            int duration = (int) Math.abs(velocity * FLING_DURATION_MULTIPLIER);
-            savedValue = getCurrent();
-            int endValue = -(int)(velocity * FLING_X_MULTIPLIER * _intervalMsec);
-            scrollAnimator = ValueAnimator
-                    .ofInt(0, endValue)
-                    .setDuration(duration);
-            scrollAnimator.setInterpolator(INTERPOLATOR);
-            scrollAnimator.addUpdateListener(flingAnimatorListener);
-            scrollAnimator.addListener(animatorListener);
-            scrollAnimator.start();
+            long duration = (long) Math.abs(velocity * FLING_DURATION_MULTIPLIER);
+            long offset = -(long) ((double) velocity * FLING_X_MULTIPLIER * _intervalMsec);
+            _animator.startFling(getCurrent(), offset, AnimationUtils.currentAnimationTimeMillis(), duration);
+            postAnimation();
             removeCallbacks(_selectedRunnable);
         }
-
-        private final ValueAnimator.AnimatorUpdateListener flingAnimatorListener = new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                setCurrent(savedValue + (int)animation.getAnimatedValue());
-                invalidate();
-            }
-        };
-        private final Animator.AnimatorListener animatorListener = new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationCancel(Animator animation) {
-                _waitForNextActionUp = true;
-                _selectedRunnable.run();
-            }
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                _selectedRunnable.run();
-            }
-        };
     }
 
     private void init(@NonNull Context context, @Nullable AttributeSet attrs) {
@@ -838,6 +1756,10 @@ public class TimelineView extends View {
         ((WindowManager)getContext().getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay().getMetrics(displayMetrics);
         _density = displayMetrics.density;
 
+        _trackPaints.put(LAYER_BACKGROUND, new TrackPaint(_paintBackground, null));
+        _trackPaints.put(LAYER_MAJOR1, new TrackPaint(_paintMajor1, _paintSelected1));
+        _trackPaints.put(LAYER_MAJOR2, new TrackPaint(_paintMajor2, _paintSelected2));
+
         _paintSelected1.setColor(Color.CYAN);
         _paintSelected1.setStyle(Paint.Style.FILL);
         _paintSelected1.setStrokeWidth(2f * _density);
@@ -876,6 +1798,9 @@ public class TimelineView extends View {
         _paintNoData.setStyle(Paint.Style.FILL);
 //        _paintNoData.setStrokeWidth(2f * _density);
 
+        _paintThumbnailPlaceholder.setColor(Color.GRAY);
+        _paintThumbnailPlaceholder.setStyle(Paint.Style.FILL);
+
         if (attrs != null) {
             TypedArray array = context.obtainStyledAttributes(attrs, R.styleable.TimelineView);
             _paintSelected1.setColor(array.getColor(R.styleable.TimelineView_timelineColorSelected1, Color.CYAN));
@@ -889,98 +1814,143 @@ public class TimelineView extends View {
             array.recycle();
         }
 
-        TimeZone tz = TimeZone.getDefault();
-        Calendar cal = GregorianCalendar.getInstance(tz);
-        _gmtOffsetInMillis = tz.getOffset(cal.getTimeInMillis());
+        updateLocaleAndTimeZone();
 
         _gestureDetector = new GestureDetector(context, _gestureListener);
         _scaleDetector = new ScaleGestureDetector(context, _scaleListener);
     }
 
+    /**
+     * Rebuilds locale and time zone dependent formatting state if default locale or
+     * time zone changed since the last call.
+     */
+    private void updateLocaleAndTimeZone() {
+        Locale locale = Locale.getDefault();
+        TimeZone tz = TimeZone.getDefault();
+        boolean localeChanged = !locale.equals(_locale);
+        if (!localeChanged && tz.getID().equals(_timeZoneId))
+            return;
+
+        if (localeChanged) {
+            _locale = locale;
+            _formatHourMin = new SimpleDateFormat("HH:mm", locale);
+            _formatShortDate = new SimpleDateFormat("MMM d", locale);
+            _asciiDigits = DecimalFormatSymbols.getInstance(locale).getZeroDigit() == '0';
+            _shortMonths = new DateFormatSymbols(locale).getShortMonths();
+            int maxMonthLength = 0;
+            for (String month : _shortMonths)
+                maxMonthLength = Math.max(maxMonthLength, month.length());
+            // "Nov 30"
+            _tickLabel = new char[Math.max(_tickLabel.length, maxMonthLength + 3)];
+        }
+        _timeZoneId = tz.getID();
+        _formatHourMin.setTimeZone(tz);
+        _formatShortDate.setTimeZone(tz);
+        _calendar.setTimeZone(tz);
+        _gmtOffsetInMillis = tz.getOffset(System.currentTimeMillis());
+
+        // Default formatter takes locale and time zone on creation
+        if (_timedateFormatter instanceof DefaultDateFormatter)
+            _timedateFormatter = new DefaultDateFormatter();
+        _fastTimeFormat = isFastTimeFormat(_timedateFormatter);
+        _timeTextKey = TEXT_KEY_INVALID;
+        _dateTextKey = TEXT_KEY_INVALID;
+        _labelCache.clear();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateLocaleAndTimeZone();
+        if (_liveMode)
+            postOnAnimation(_liveRunnable);
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        updateLocaleAndTimeZone();
+        invalidate();
+    }
+
     private final Rect r = new Rect();
     private final RectF rf = new RectF();
     private final Paint p = new Paint();
+    private final ColorRectBatcher _batcher = new ColorRectBatcher();
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-//        long l1 = System.currentTimeMillis();
+        TimelineMetricsRecorder metrics = _metrics;
+        long frameStart = 0;
+        if (metrics != null) {
+            metrics.onFrameStart();
+            frameStart = System.nanoTime();
+        }
         if (_needUpdate) {
-            update();
+            if (metrics != null) {
+                Trace.beginSection("TimelineView.update");
+                long updateStart = System.nanoTime();
+                update();
+                metrics.onUpdate(System.nanoTime() - updateStart);
+                Trace.endSection();
+            } else {
+                update();
+            }
             _needUpdate = false;
         }
-//        long l2 = System.currentTimeMillis();
-
-        canvas.drawRect(_rectNoData.left, _rectNoData.top, _rectNoData.right, _rectNoData.bottom, _paintNoData);
-
-        // Draw minor rectangles
-        for (DrawRect rect : _rectsBackground) {
-//            if (rect.color != -1) {
-//                p.setColor(rect.color);
-//                p.setStyle(Paint.Style.FILL);
-//                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, p);
-//            } else {
-                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, _paintBackground);
-//            }
+        TimelineLayout pending = _pendingLayout.getAndSet(null);
+        if (pending != null) {
+            _freeLayout.set(_layout);
+            _layout = pending;
+            requestMoreDataIfNeeded(pending);
         }
-
-//        long l3 = System.currentTimeMillis();
-        // Draw major rectangles
-        for (DrawRect rect : _rectsMajor1) {
-            if (rect.color != -1) {
-                p.setColor(rect.color);
-                p.setStyle(Paint.Style.FILL);
-                p.setStrokeWidth(2f * _density);
-                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, p);
-                // Draw line on top to be sure that rect is not too narrow
-                canvas.drawLine(rect.left, rect.top, rect.left, rect.bottom, p);
-            } else {
-                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, _paintMajor1);
-                // Draw line on top to be sure that rect is not too narrow
-                canvas.drawLine(rect.left, rect.top, rect.left, rect.bottom, _paintMajor1);
-            }
+        TimelineLayout layout = _layout;
+
+        canvas.drawRect(layout.rectNoData.left, layout.rectNoData.top, layout.rectNoData.right, layout.rectNoData.bottom, _paintNoData);
+
+        // Layout may be computed for an older selected time, e.g. in live mode or while async
+        // layout is in progress. Records are shifted then instead of being projected again.
+        float shift = 0f;
+        if (layout.intervalMsec == _intervalMsec && layout.width == getWidth() && layout.intervalMsec > 0)
+            shift = (layout.selectedMsec - _selectedMsec) * (layout.width / (float) layout.intervalMsec);
+        boolean shifted = shift != 0f;
+        if (shifted) {
+            canvas.save();
+            canvas.translate(shift, 0);
         }
 
-//        long l4 = System.currentTimeMillis();
-        for (DrawRect rect : _rectsMajor2) {
-            if (rect.color != -1) {
-                p.setColor(rect.color);
-                p.setStyle(Paint.Style.FILL);
-                p.setStrokeWidth(2f * _density);
-                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, p);
-                // Draw line on top to be sure that rect is not too narrow
-                canvas.drawLine(rect.left, rect.top, rect.left, rect.bottom, p);
-            } else {
-                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, _paintMajor2);
-                // Draw line on top to be sure that rect is not too narrow
-                canvas.drawLine(rect.left, rect.top, rect.left, rect.bottom, _paintMajor2);
-            }
-        }
-//        long l5 = System.currentTimeMillis();
-
-        // Draw currently selected rectangle
-        if (_rectMajor1Selected != null) {
-            canvas.drawRect(
-                    _rectMajor1Selected.left,
-                    _rectMajor1Selected.top,
-                    _rectMajor1Selected.right,
-                    _rectMajor1Selected.bottom,
-                    _paintSelected1);
+        // All tracks in z-order, built-in layers are drawn from tiles if enabled
+        boolean tiles = _tileCache != null && !layout.buildRects;
+        TimelineTrack[] tracks = layout.tracks;
+        for (int i = 0; i < tracks.length; i++) {
+            TimelineTrack track = tracks[i];
+            TrackPaint paint = _trackPaints.get(track.id);
+            // Track removed after layout was computed
+            if (paint == null)
+                continue;
+            boolean isLayer = track.id < LAYERS;
+            long sectionStart = beginSection(isLayer ? LAYER_SECTION_NAMES[track.id] : "TimelineView.drawTracks");
+            drawTrack(canvas, track, layout.trackRects[i], paint.paint, tiles, layout);
+            endSection(isLayer ? track.id : TimelineMetrics.SECTION_TRACKS, sectionStart);
+            if (track.id == LAYER_BACKGROUND)
+                drawThumbnails(canvas, track, layout.trackRects[i], layout);
         }
 
-//        long l6 = System.currentTimeMillis();
-        if (_rectMajor2Selected != null) {
-            canvas.drawRect(
-                    _rectMajor2Selected.left,
-                    _rectMajor2Selected.top,
-                    _rectMajor2Selected.right,
-                    _rectMajor2Selected.bottom,
-                    _paintSelected2);
+        // Draw currently selected rectangles on top of all tracks
+        for (int i = 0; i < tracks.length; i++) {
+            DrawRect selected = layout.trackRects[i].selected;
+            TrackPaint paint = _trackPaints.get(tracks[i].id);
+            if (selected != null && paint != null && paint.selectedPaint != null)
+                canvas.drawRect(selected.left, selected.top, selected.right, selected.bottom, paint.selectedPaint);
         }
 
-//        long l7 = System.currentTimeMillis();
+        if (shifted)
+            canvas.restore();
 
+        long sectionStart = beginSection("TimelineView.drawRuler");
         drawRuler(canvas);
+        endSection(TimelineMetrics.SECTION_RULER, sectionStart);
 
         // Draw selected time
         canvas.drawLine(
@@ -991,25 +1961,185 @@ public class TimelineView extends View {
                 _paintPointer);
 
 
+        sectionStart = beginSection("TimelineView.drawCurrentTimeDate");
         drawCurrentTimeDate(canvas);
+        endSection(TimelineMetrics.SECTION_TIME_DATE, sectionStart);
 
+        if (metrics != null)
+            metrics.onFrame(System.nanoTime() - frameStart, layout);
+    }
 
-//        long l8 = System.currentTimeMillis();
-//        Log.i("ZZZ", "onDraw 1: " + (l2 - l1) + " 2: " + (l3 - l2) + " 3: " + (l4 - l3) + " 4: " + (l5 - l4) +
-//                " 5: " + (l6 - l5) + " 6: " + (l7 - l6) + " 7: " + (l8 - l7) + " t: " + (l8 - l1));
+    /**
+     * Starts trace section if metrics are enabled.
+     * @return section start time to pass to endSection()
+     */
+    private long beginSection(@NonNull String name) {
+        if (_metrics == null)
+            return 0;
+        Trace.beginSection(name);
+        return System.nanoTime();
     }
 
-    private void drawCurrentTimeDate(@NonNull Canvas canvas) {
-        final String time;
-        final boolean isNow;
-        if (System.currentTimeMillis() - _selectedMsec < 5000) {
-            time = "Now";
-            isNow = true;
+    private void endSection(int section, long sectionStart) {
+        TimelineMetricsRecorder metrics = _metrics;
+        if (metrics == null)
+            return;
+        metrics.onSection(section, System.nanoTime() - sectionStart);
+        Trace.endSection();
+    }
+
+    private void drawMajorRects(
+            @NonNull Canvas canvas,
+            @NonNull ArrayList<DrawRect> rects,
+            @NonNull Paint defaultPaint) {
+        if (_colorBatching) {
+            _batcher.clear();
+            for (int i = 0, size = rects.size(); i < size; i++) {
+                DrawRect rect = rects.get(i);
+                _batcher.add(
+                        rect.color != -1 ? rect.color : defaultPaint.getColor(),
+                        rect.left, rect.top, rect.right, rect.bottom);
+            }
+            p.setStyle(Paint.Style.FILL);
+            p.setStrokeWidth(2f * _density);
+            _batcher.draw(canvas, p);
+            return;
+        }
+        for (int i = 0, size = rects.size(); i < size; i++) {
+            DrawRect rect = rects.get(i);
+            if (rect.color != -1) {
+                p.setColor(rect.color);
+                p.setStyle(Paint.Style.FILL);
+                p.setStrokeWidth(2f * _density);
+                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, p);
+                // Draw line on top to be sure that rect is not too narrow
+                canvas.drawLine(rect.left, rect.top, rect.left, rect.bottom, p);
+            } else {
+                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, defaultPaint);
+                // Draw line on top to be sure that rect is not too narrow
+                canvas.drawLine(rect.left, rect.top, rect.left, rect.bottom, defaultPaint);
+            }
+        }
+    }
+
+    /**
+     * Draws heatmap runs, a single rectangle per run of the same density level.
+     */
+    private void drawHeatmapRects(@NonNull Canvas canvas, @NonNull ArrayList<DrawRect> rects) {
+        p.setStyle(Paint.Style.FILL);
+        for (int i = 0, size = rects.size(); i < size; i++) {
+            DrawRect rect = rects.get(i);
+            p.setColor(rect.color);
+            canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, p);
+        }
+    }
+
+    /**
+     * Draws rectangles of the track, or its tiles if they are up to date.
+     */
+    private void drawTrack(
+            @NonNull Canvas canvas,
+            @NonNull TimelineTrack track,
+            @NonNull TimelineLayout.TrackRects rects,
+            @NonNull Paint paint,
+            boolean tiles,
+            @NonNull TimelineLayout layout) {
+        if (rects.heatmap) {
+            drawHeatmapRects(canvas, rects.rects);
+        } else if (tiles && track.hasFlag(TimelineTrack.FLAG_TILES)) {
+            _tileCache.draw(canvas, track.id, layout.selectedMsec - layout.intervalMsec / 2,
+                    layout.intervalMsec, layout.width, rects.top, rects.bottom);
+        } else if (track.hasFlag(TimelineTrack.FLAG_LEFT_LINE)) {
+            drawMajorRects(canvas, rects.rects, paint);
         } else {
-            time = _timedateFormatter.getStringTime(_selectedMsecDate);
-            isNow = false;
+            ArrayList<DrawRect> list = rects.rects;
+            for (int i = 0, size = list.size(); i < size; i++) {
+                DrawRect rect = list.get(i);
+                Paint rectPaint = paint;
+                if (rect.color != -1) {
+                    p.setColor(rect.color);
+                    p.setStyle(Paint.Style.FILL);
+                    rectPaint = p;
+                }
+                canvas.drawRect(rect.left, rect.top, rect.right, rect.bottom, rectPaint);
+            }
+        }
+    }
+
+    private void drawThumbnails(
+            @NonNull Canvas canvas,
+            @NonNull TimelineTrack track,
+            @NonNull TimelineLayout.TrackRects rects,
+            @NonNull TimelineLayout layout) {
+        ThumbnailStrip thumbnails = _thumbnails;
+        if (thumbnails == null || layout.intervalMsec > INTERVAL_MIN_15)
+            return;
+        thumbnails.draw(
+                canvas,
+                track.layer,
+                layout.selectedMsec - layout.intervalMsec / 2,
+                layout.intervalMsec,
+                layout.width,
+                rects.top,
+                rects.bottom,
+                _paintThumbnailPlaceholder);
+    }
+
+    /**
+     * Draws records of the track overlapping [startMsec, endMsec) to the tile.
+     */
+    private void renderTile(
+            @NonNull Canvas canvas,
+            int trackId,
+            long startMsec,
+            long endMsec,
+            float msecInPixels,
+            int height) {
+        TimelineTrack track = getTrack(trackId);
+        TrackPaint trackPaint = _trackPaints.get(trackId);
+        if (track == null || trackPaint == null)
+            return;
+        RecordLayer layer = track.layer;
+        boolean leftLine = track.hasFlag(TimelineTrack.FLAG_LEFT_LINE);
+        boolean recordColors = track.hasFlag(TimelineTrack.FLAG_RECORD_COLORS);
+        TimeRecordStore store = layer.store;
+        RecordIndex index = layer.index;
+        // Line on the left side of rectangles may come from the record started after the tile
+        long lineMsec = leftLine ? (long) Math.ceil(_density / msecInPixels) : 0;
+        int startIndex = 0;
+        int endIndex = index.size();
+        if (index.isSorted()) {
+            startIndex = index.getFirstIndexStartedNotAfter(endMsec + lineMsec);
+            endIndex = Math.max(index.getFirstIndexStartedBefore(startMsec), startIndex);
         }
-        _paintText.getTextBounds(time, 0, time.length(), r);
+        p.setStyle(Paint.Style.FILL);
+        p.setStrokeWidth(2f * _density);
+        for (int i = TimelineLayout.getNextVisibleIndex(index, startIndex, endIndex, startMsec);
+             i != -1;
+             i = TimelineLayout.getNextVisibleIndex(index, i + 1, endIndex, startMsec)) {
+            long timestampMsec = store.getTimestampMsec(i);
+            long recordEndMsec = store.getEndMsec(i);
+            if (recordEndMsec < startMsec || timestampMsec > endMsec + lineMsec)
+                continue;
+            float left = (timestampMsec - startMsec) * msecInPixels;
+            float right = (recordEndMsec - startMsec) * msecInPixels;
+            Paint paint = trackPaint.paint;
+            int color = recordColors ? store.getColor(i) : -1;
+            if (color != -1) {
+                p.setColor(color);
+                paint = p;
+            }
+            canvas.drawRect(left, 0, right, height, paint);
+            // Draw line on top to be sure that rect is not too narrow
+            if (leftLine)
+                canvas.drawLine(left, 0, left, height, paint);
+        }
+    }
+
+    private void drawCurrentTimeDate(@NonNull Canvas canvas) {
+        final boolean isNow = System.currentTimeMillis() - _selectedMsec < 5000;
+        updateTimeText(isNow);
+        _paintText.getTextBounds(_timeText, 0, _timeTextLength, r);
 
         // Do not allow changing minor size of red rectangle for different time,
         // e.g. width of "00:00:00" in pixels is bigger than "11:11:11".
@@ -1024,13 +2154,16 @@ public class TimelineView extends View {
 
         // Draw current time text, e.g. "17:22:42"
         canvas.drawText(
-                time,
+                _timeText,
+                0,
+                _timeTextLength,
                 (getWidth() >> 1) - rf.width() / 2 + 4f * _density,
                 r.height() + 3 * _density, //getHeight() - r.height() / 3,
                 _paintText);
 
         // Draw current date text, e.g. "Today"
-        String date = _timedateFormatter.getStringDate(_selectedMsecDate);
+        updateDateText();
+        String date = _dateText;
         _paintText.getTextBounds(date, 0, date.length(), r);
         canvas.drawText(
                 date,
@@ -1039,6 +2172,99 @@ public class TimelineView extends View {
                 _paintText);
     }
 
+    /**
+     * Formats selected time into _timeText. Reformatted only if second changed.
+     */
+    private void updateTimeText(boolean isNow) {
+        long key = isNow ? TEXT_KEY_NOW : Math.floorDiv(_selectedMsec, 1000L);
+        if (key == _timeTextKey)
+            return;
+        _timeTextKey = key;
+        if (isNow) {
+            setTimeText("Now");
+        } else if (_fastTimeFormat) {
+            // "HH:mm:ss"
+            _calendar.setTimeInMillis(_selectedMsec);
+            int pos = putTwoDigits(_timeText, 0, _calendar.get(Calendar.HOUR_OF_DAY));
+            _timeText[pos++] = ':';
+            pos = putTwoDigits(_timeText, pos, _calendar.get(Calendar.MINUTE));
+            _timeText[pos++] = ':';
+            _timeTextLength = putTwoDigits(_timeText, pos, _calendar.get(Calendar.SECOND));
+        } else {
+            setTimeText(_timedateFormatter.getStringTime(_selectedMsecDate));
+        }
+    }
+
+    private void setTimeText(@NonNull String text) {
+        if (text.length() > _timeText.length)
+            _timeText = new char[text.length()];
+        text.getChars(0, text.length(), _timeText, 0);
+        _timeTextLength = text.length();
+    }
+
+    /**
+     * Formats selected date into _dateText. Default formatter shows date only, so it is
+     * reformatted only if day changed. Custom formatter is called once a second.
+     */
+    private void updateDateText() {
+        long key;
+        if (_timedateFormatter instanceof DefaultDateFormatter) {
+            _calendar.setTimeInMillis(_selectedMsec);
+            key = _calendar.get(Calendar.YEAR) * 1000L + _calendar.get(Calendar.DAY_OF_YEAR);
+        } else {
+            key = Math.floorDiv(_selectedMsec, 1000L);
+        }
+        if (key != _dateTextKey) {
+            _dateTextKey = key;
+            _dateText = _timedateFormatter.getStringDate(_selectedMsecDate);
+        }
+    }
+
+    private static int putTwoDigits(@NonNull char[] buffer, int pos, int value) {
+        buffer[pos] = (char) ('0' + value / 10);
+        buffer[pos + 1] = (char) ('0' + value % 10);
+        return pos + 2;
+    }
+
+    /**
+     * Formats ruler label into _tickLabel, e.g. "12:00", or "Nov 1" instead of "00:00".
+     * @return true if label is a date
+     */
+    private boolean formatTickLabel(long timestampMsec) {
+        if (!_asciiDigits) {
+            _tickDate.setTime(timestampMsec);
+            String text = _formatHourMin.format(_tickDate);
+            boolean isDate = "00:00".equals(text);
+            if (isDate)
+                text = _formatShortDate.format(_tickDate);
+            if (text.length() > _tickLabel.length)
+                _tickLabel = new char[text.length()];
+            text.getChars(0, text.length(), _tickLabel, 0);
+            _tickLabelLength = text.length();
+            return isDate;
+        }
+        _calendar.setTimeInMillis(timestampMsec);
+        int hour = _calendar.get(Calendar.HOUR_OF_DAY);
+        int minute = _calendar.get(Calendar.MINUTE);
+        if (hour == 0 && minute == 0) {
+            String month = _shortMonths[_calendar.get(Calendar.MONTH)];
+            month.getChars(0, month.length(), _tickLabel, 0);
+            int pos = month.length();
+            _tickLabel[pos++] = ' ';
+            int day = _calendar.get(Calendar.DAY_OF_MONTH);
+            if (day < 10)
+                _tickLabel[pos++] = (char) ('0' + day);
+            else
+                pos = putTwoDigits(_tickLabel, pos, day);
+            _tickLabelLength = pos;
+            return true;
+        }
+        int pos = putTwoDigits(_tickLabel, 0, hour);
+        _tickLabel[pos++] = ':';
+        _tickLabelLength = putTwoDigits(_tickLabel, pos, minute);
+        return false;
+    }
+
     // Draw hours
     // 12:00  13:00  14:00  15:00  16:00
 //    private void drawHours(@NonNull Canvas canvas, float msecInPixels) {
@@ -1084,8 +2310,13 @@ public class TimelineView extends View {
             long offsetInterval = minValue % interval;
 
             // Check that we can draw not overlaid hour:min.
-            _paintText.getTextBounds("__00:00__", 0, 9, r);
-            if (numToDraw * r.width() < getWidth()) {
+            if (_labelCacheTextSize != _paintText.getTextSize()) {
+                _labelCacheTextSize = _paintText.getTextSize();
+                _labelCache.clear();
+                _paintText.getTextBounds("__00:00__", 0, 9, r);
+                _tickMaxWidth = r.width();
+            }
+            if (numToDraw * _tickMaxWidth < getWidth()) {
 
                 long offsetInPixels = (long) (offsetInterval * msecInPixels);
                 long curIntervalInPixels = (long) (_intervalMsec * msecInPixels);
@@ -1096,22 +2327,25 @@ public class TimelineView extends View {
                 // 12:00  13:00  14:00  15:00  16:00
                 //   |      |      |      |      |
                 for (int i = 0; i < numToDraw; i++) {
-                    Date startDate = new Date(minValue - offsetInterval + (i + 1) * interval - _gmtOffsetInMillis);
-                    String text = _formatHourMin.format(startDate);
-                    Paint paint = _paintTextRuler;
-                    // Show "Nov 1" instead of "00:00"
-                    if ("00:00".equals(text)) {
-                        text = _formatShortDate.format(startDate);
-                        paint = _paintTextRulerMain;
+                    long startMsec = minValue - offsetInterval + (i + 1) * interval - _gmtOffsetInMillis;
+                    int label = _labelCache.find(startMsec, interval);
+                    if (label < 0) {
+                        // Show "Nov 1" instead of "00:00"
+                        boolean isDate = formatTickLabel(startMsec);
+                        _paintText.getTextBounds(_tickLabel, 0, _tickLabelLength, r);
+                        label = _labelCache.put(
+                                startMsec, interval, _tickLabel, _tickLabelLength, isDate, r.width(), r.height());
                     }
-                    _paintText.getTextBounds(text, 0, text.length(), r);
+                    Paint paint = _labelCache.isDate(label) ? _paintTextRulerMain : _paintTextRuler;
 
                     float x = curIntervalInPixels - (offsetInPixels + (numToDraw - i - 1) * intervalInPixels);
                     // Draw "12:00"
                     canvas.drawText(
-                            text,
-                            x - r.width() / 2f,
-                            height - r.height(),
+                            _labelCache.getLabel(label),
+                            0,
+                            _labelCache.getLength(label),
+                            x - _labelCache.getWidth(label) / 2f,
+                            height - _labelCache.getHeight(label),
                             paint);
 
                     // Draw ruler
@@ -1237,6 +2471,8 @@ public class TimelineView extends View {
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
+        if (_tileCache != null)
+            _tileCache.invalidateAll();
         _needUpdate = true;
     }
 
@@ -0,0 +1,134 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Bitset lookups should match checking every record overlapping a bucket, for bitsets built
+ * at once and extended record by record alike.
+ */
+public class CoverageBitsetTest {
+
+    @Test
+    public void lookupsMatchRecords() {
+        Random random = new Random(1);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            long bucketMsec = 1 + random.nextInt(5_000);
+            // Negative timestamps as well, buckets are floored
+            long originMsec = random.nextBoolean() ? 0 : 1_700_000_000_000L;
+            TimeRecordStore store = createStore(random, originMsec, 1 + random.nextInt(200), bucketMsec);
+            CoverageBitset bitset = CoverageBitset.build(store, bucketMsec);
+            assertNotNull(bitset);
+            assertMatchesRecords(random, store, bitset);
+        }
+    }
+
+    @Test
+    public void extendedMatchesBuilt() {
+        Random random = new Random(2);
+        for (int iteration = 0; iteration < 50; iteration++) {
+            long bucketMsec = 1 + random.nextInt(5_000);
+            TimeRecordStore store = createStore(random, 0, 1 + random.nextInt(200), bucketMsec);
+            CoverageBitset bitset = CoverageBitset.build(new TimeRecordStore(0), bucketMsec);
+            assertNotNull(bitset);
+            // Records are added out of order, so bitset grows at both sides
+            int from = random.nextInt(store.size());
+            int to = from;
+            while (from > 0 || to < store.size()) {
+                if (to < store.size() && (from == 0 || random.nextBoolean())) {
+                    int count = Math.min(store.size() - to, 1 + random.nextInt(20));
+                    bitset = bitset.extend(store, to, to + count);
+                    to += count;
+                } else {
+                    int count = Math.min(from, 1 + random.nextInt(20));
+                    bitset = bitset.extend(store, from - count, from);
+                    from -= count;
+                }
+                assertNotNull(bitset);
+            }
+            assertMatchesRecords(random, store, bitset);
+            assertSame(bitset, bitset.extend(store, 0, 0));
+        }
+    }
+
+    @Test
+    public void emptyBitsetCoversNothing() {
+        CoverageBitset bitset = CoverageBitset.build(new TimeRecordStore(0), 1000);
+        assertNotNull(bitset);
+        assertFalse(bitset.contains(0));
+        assertEquals(12_345, bitset.getNextGapMsec(12_345));
+        assertEquals(-1, bitset.getNextCoverageMsec(-12_345));
+    }
+
+    @Test
+    public void tooManyBucketsAreNotBuilt() {
+        TimeRecordStore store = new TimeRecordStore(0);
+        store.add(10 * 365 * TimelineView.INTERVAL_DAY_1, 2000);
+        store.add(0, 2000);
+        assertNull(CoverageBitset.build(store, 1000));
+        assertNotNull(CoverageBitset.build(store, 60_000));
+    }
+
+    private static void assertMatchesRecords(Random random, TimeRecordStore store, CoverageBitset bitset) {
+        long bucketMsec = bitset.getBucketMsec();
+        long minMsec = store.getTimestampMsec(store.size() - 1);
+        long maxMsec = store.getTimestampMsec(0) + 3 * bucketMsec;
+        for (int i = 0; i < store.size(); i++)
+            maxMsec = Math.max(maxMsec, store.getEndMsec(i));
+        long lastCovered = Long.MIN_VALUE;
+        for (int i = 0; i < store.size(); i++)
+            lastCovered = Math.max(lastCovered, getLastBucket(store, i, bucketMsec));
+
+        for (int query = 0; query < 500; query++) {
+            long timestampMsec = minMsec - 3 * bucketMsec + (long) (random.nextDouble() * (maxMsec - minMsec + 6 * bucketMsec));
+            long bucket = Math.floorDiv(timestampMsec, bucketMsec);
+            boolean covered = isCovered(store, bucket, bucketMsec);
+            assertEquals(covered, bitset.contains(timestampMsec));
+
+            long gap = bucket;
+            while (isCovered(store, gap, bucketMsec))
+                gap++;
+            assertEquals(covered ? gap * bucketMsec : timestampMsec, bitset.getNextGapMsec(timestampMsec));
+
+            long next = bucket;
+            while (next <= lastCovered && !isCovered(store, next, bucketMsec))
+                next++;
+            long expected = next > lastCovered ? -1 : covered ? timestampMsec : next * bucketMsec;
+            assertEquals(expected, bitset.getNextCoverageMsec(timestampMsec));
+        }
+    }
+
+    private static boolean isCovered(TimeRecordStore store, long bucket, long bucketMsec) {
+        for (int i = 0; i < store.size(); i++) {
+            if (Math.floorDiv(store.getTimestampMsec(i), bucketMsec) <= bucket && bucket <= getLastBucket(store, i, bucketMsec))
+                return true;
+        }
+        return false;
+    }
+
+    private static long getLastBucket(TimeRecordStore store, int index, long bucketMsec) {
+        return Math.floorDiv(store.getEndMsec(index) - 1, bucketMsec);
+    }
+
+    /**
+     * Returns store with records newest first around originMsec, gaps of up to several buckets
+     * and durations from under a bucket to many buckets.
+     */
+    private static TimeRecordStore createStore(Random random, long originMsec, int size, long bucketMsec) {
+        TimeRecordStore store = new TimeRecordStore(size);
+        long timestampMsec = originMsec + size * bucketMsec;
+        for (int i = 0; i < size; i++) {
+            timestampMsec -= (long) (random.nextDouble() * 4 * bucketMsec);
+            store.add(timestampMsec, (long) (random.nextDouble() * 3 * bucketMsec));
+        }
+        return store;
+    }
+
+}
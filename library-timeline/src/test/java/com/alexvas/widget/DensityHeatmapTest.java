@@ -0,0 +1,111 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Heatmap counts should match counting records overlapping every bucket one by one, after
+ * panning reuses counts of buckets still visible as well.
+ */
+public class DensityHeatmapTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+
+    @Test
+    public void countsRecordsOverlappingBuckets() {
+        TimeRecordStore store = new TimeRecordStore(0);
+        store.add(NOW_MSEC + 2_500, 10_000, -1);
+        store.add(NOW_MSEC + 1_000, 1_500, -1);
+        // Started before the window and overlapping all its buckets
+        store.add(NOW_MSEC - 60_000, 120_000, -1);
+        RecordLayer layer = new RecordLayer(store, false);
+        DensityHeatmap heatmap = new DensityHeatmap();
+        heatmap.update(layer, 1_000, NOW_MSEC / 1_000, 6);
+        int[] counts = {1, 2, 3, 2, 2, 2};
+        for (int i = 0; i < counts.length; i++)
+            assertEquals("Bucket " + i, counts[i], heatmap.getCount(i));
+    }
+
+    @Test
+    public void panningMatchesCountingAgain() {
+        Random random = new Random(1);
+        RecordLayer layer = new RecordLayer(createStore(random, 5_000), false);
+        DensityHeatmap heatmap = new DensityHeatmap();
+        long bucketMsec = 60_000;
+        long firstBucket = (NOW_MSEC - TimelineView.INTERVAL_DAY_1) / bucketMsec;
+        int size = 1080;
+        for (int step = 0; step < 200; step++) {
+            // Mostly pan by a few buckets, sometimes jump or zoom
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                bucketMsec = 30_000 + random.nextInt(120_000);
+                firstBucket = (NOW_MSEC - random.nextInt((int) TimelineView.INTERVAL_DAY_1)) / bucketMsec;
+            } else if (kind == 1) {
+                firstBucket += random.nextInt(4 * size) - 2 * size;
+            } else {
+                firstBucket += random.nextInt(41) - 20;
+            }
+            heatmap.update(layer, bucketMsec, firstBucket, size);
+            assertEquals(firstBucket, heatmap.getFirstBucket());
+            assertEquals(size, heatmap.size());
+            for (int i = 0; i < size; i++)
+                assertEquals(count(layer.store, (firstBucket + i) * bucketMsec, bucketMsec), heatmap.getCount(i));
+        }
+    }
+
+    @Test
+    public void unsortedRecordsAreCounted() {
+        Random random = new Random(2);
+        TimeRecordStore store = createStore(random, 500);
+        TimeRecordStore unsorted = new TimeRecordStore(store.size());
+        for (int i = store.size() - 1; i >= 0; i--)
+            unsorted.add(store.getTimestampMsec(i), store.getDurationMsec(i), -1);
+        RecordLayer layer = new RecordLayer(unsorted, false);
+        DensityHeatmap heatmap = new DensityHeatmap();
+        long bucketMsec = 600_000;
+        long firstBucket = (NOW_MSEC - TimelineView.INTERVAL_DAY_1) / bucketMsec;
+        heatmap.update(layer, bucketMsec, firstBucket, 200);
+        for (int i = 0; i < 200; i++)
+            assertEquals(count(unsorted, (firstBucket + i) * bucketMsec, bucketMsec), heatmap.getCount(i));
+    }
+
+    @Test
+    public void levelIsLogarithmic() {
+        assertEquals(0, DensityHeatmap.getLevel(0, 8));
+        assertEquals(1, DensityHeatmap.getLevel(1, 8));
+        assertEquals(2, DensityHeatmap.getLevel(3, 8));
+        assertEquals(3, DensityHeatmap.getLevel(4, 8));
+        assertEquals(8, DensityHeatmap.getLevel(100_000, 8));
+    }
+
+    private static int count(TimeRecordStore store, long startMsec, long bucketMsec) {
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (store.getTimestampMsec(i) < startMsec + bucketMsec && store.getEndMsec(i) > startMsec)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns store with records within a day before NOW_MSEC, newest first. Some of them
+     * last for hours.
+     */
+    private static TimeRecordStore createStore(Random random, int size) {
+        TimeRecordStore store = new TimeRecordStore(size);
+        long stepMsec = TimelineView.INTERVAL_DAY_1 / size;
+        long timestampMsec = NOW_MSEC;
+        for (int i = 0; i < size; i++) {
+            timestampMsec -= (long) (random.nextDouble() * 2 * stepMsec);
+            long durationMsec = random.nextInt(20) == 0 ?
+                    random.nextInt((int) TimelineView.INTERVAL_HOUR_6) :
+                    random.nextInt(600_000);
+            store.add(timestampMsec, durationMsec, -1);
+        }
+        return store;
+    }
+
+}
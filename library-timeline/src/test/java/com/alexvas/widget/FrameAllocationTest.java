@@ -0,0 +1,82 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Per frame work besides layout, batching rectangles by color and stepping animations,
+ * should not allocate once buffers are big enough.
+ */
+public class FrameAllocationTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+    private static final ThreadMXBean THREAD_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int PASSES = 4;
+    private static final int[] COLORS = {0xff0000ff, 0xff00ff00, 0xffff0000, 0xff00ffff, 0xffff00ff, 0xffffff00};
+
+    @Test
+    public void batcherDoesNotAllocateAfterWarmUp() {
+        ColorRectBatcher batcher = new ColorRectBatcher();
+        long minAllocated = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass++) {
+            long allocated = getAllocatedBytes();
+            for (int frame = 0; frame < 50; frame++) {
+                batcher.clear();
+                // More colors and rects than initial buffers hold, narrow rects have only a line
+                for (int i = 0; i < 500; i++) {
+                    int left = (i * 7 + frame) % 1080;
+                    batcher.add(COLORS[i % COLORS.length], left, 20, left + i % 3, 180);
+                }
+            }
+            allocated = getAllocatedBytes() - allocated;
+            assertEquals(COLORS.length, batcher.size());
+            // The first pass grows buffers
+            if (pass > 0)
+                minAllocated = Math.min(minAllocated, allocated - getMeasurementOverhead());
+        }
+        assertEquals(0, minAllocated);
+    }
+
+    @Test
+    public void animatorStepDoesNotAllocate() {
+        TimelineAnimator animator = new TimelineAnimator();
+        long minAllocated = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass++) {
+            int animated = 0;
+            long allocated = getAllocatedBytes();
+            for (int i = 0; i < 20; i++) {
+                long startMsec = NOW_MSEC + i * 1_000L;
+                if (i % 2 == 0)
+                    animator.startFling(NOW_MSEC, TimelineView.INTERVAL_HOUR_1, startMsec, 500);
+                else
+                    animator.startPan(NOW_MSEC, NOW_MSEC - TimelineView.INTERVAL_DAY_1, startMsec, 500);
+                animator.startZoom(TimelineView.INTERVAL_HOUR_1, TimelineView.INTERVAL_HOUR_6, startMsec, 300);
+                // 60 fps frames up to the end of both animations
+                for (long time = 0; time <= 512; time += 16)
+                    animated |= animator.step(startMsec + time);
+            }
+            allocated = getAllocatedBytes() - allocated;
+            assertFalse(animator.isRunning());
+            assertEquals(TimelineAnimator.ANIMATED_TIME | TimelineAnimator.ANIMATED_INTERVAL, animated);
+            if (pass > 0)
+                minAllocated = Math.min(minAllocated, allocated - getMeasurementOverhead());
+        }
+        assertEquals(0, minAllocated);
+    }
+
+    private static long getAllocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getMeasurementOverhead() {
+        long allocated = getAllocatedBytes();
+        return getAllocatedBytes() - allocated;
+    }
+
+}
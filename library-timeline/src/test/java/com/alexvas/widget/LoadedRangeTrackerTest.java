@@ -0,0 +1,104 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Requested ranges should cover exactly the pages added and not removed since, so the view
+ * requests every missing page once.
+ */
+public class LoadedRangeTrackerTest {
+
+    private static final int PAGES = 64;
+    private static final long PAGE_MSEC = TimelineView.INTERVAL_HOUR_1;
+
+    @Test
+    public void matchesRequestedPages() {
+        Random random = new Random(1);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            LoadedRangeTracker tracker = new LoadedRangeTracker();
+            boolean[] requested = new boolean[PAGES];
+            for (int step = 0; step < 50; step++) {
+                int from = random.nextInt(PAGES);
+                int to = Math.min(PAGES, from + random.nextInt(8));
+                if (random.nextInt(4) == 0) {
+                    tracker.remove(from * PAGE_MSEC, to * PAGE_MSEC);
+                    for (int page = from; page < to; page++)
+                        requested[page] = false;
+                } else {
+                    tracker.add(from * PAGE_MSEC, to * PAGE_MSEC);
+                    for (int page = from; page < to; page++)
+                        requested[page] = true;
+                }
+                assertGaps(requested, tracker);
+            }
+        }
+    }
+
+    @Test
+    public void adjacentRangesAreJoined() {
+        LoadedRangeTracker tracker = new LoadedRangeTracker();
+        // Scrolling into the past, page by page
+        for (int page = PAGES - 1; page >= 0; page--)
+            tracker.add(page * PAGE_MSEC, (page + 1) * PAGE_MSEC);
+        assertTrue(tracker.contains(0, PAGES * PAGE_MSEC));
+        assertFalse(tracker.contains(-1, PAGES * PAGE_MSEC));
+        assertFalse(tracker.contains(0, PAGES * PAGE_MSEC + 1));
+
+        // Joining several ranges at once
+        tracker.clear();
+        for (int page = 0; page < PAGES; page += 2)
+            tracker.add(page * PAGE_MSEC, (page + 1) * PAGE_MSEC);
+        assertFalse(tracker.contains(0, 2 * PAGE_MSEC));
+        tracker.add(PAGE_MSEC / 2, (PAGES - 1) * PAGE_MSEC);
+        assertTrue(tracker.contains(0, (PAGES - 1) * PAGE_MSEC));
+    }
+
+    @Test
+    public void removeSplitsAndTrims() {
+        LoadedRangeTracker tracker = new LoadedRangeTracker();
+        tracker.add(0, 10 * PAGE_MSEC);
+        tracker.remove(4 * PAGE_MSEC, 6 * PAGE_MSEC);
+        assertTrue(tracker.contains(0, 4 * PAGE_MSEC));
+        assertTrue(tracker.contains(6 * PAGE_MSEC, 10 * PAGE_MSEC));
+        assertFalse(tracker.contains(3 * PAGE_MSEC, 5 * PAGE_MSEC));
+        assertFalse(tracker.contains(4 * PAGE_MSEC, 4 * PAGE_MSEC + 1));
+
+        // Retention drops everything newer or older than the kept records
+        tracker.remove(9 * PAGE_MSEC + 1, Long.MAX_VALUE);
+        assertTrue(tracker.contains(6 * PAGE_MSEC, 9 * PAGE_MSEC + 1));
+        assertFalse(tracker.contains(6 * PAGE_MSEC, 9 * PAGE_MSEC + 2));
+        tracker.remove(Long.MIN_VALUE, PAGE_MSEC);
+        assertFalse(tracker.contains(0, 1));
+        assertTrue(tracker.contains(PAGE_MSEC, 4 * PAGE_MSEC));
+
+        // Empty ranges change nothing
+        tracker.add(20 * PAGE_MSEC, 20 * PAGE_MSEC);
+        tracker.remove(7 * PAGE_MSEC, 7 * PAGE_MSEC);
+        assertFalse(tracker.contains(20 * PAGE_MSEC - 1, 20 * PAGE_MSEC + 1));
+        assertTrue(tracker.contains(6 * PAGE_MSEC, 8 * PAGE_MSEC));
+    }
+
+    /**
+     * Checks every range of pages, as the view checks the window first and then each page.
+     */
+    private static void assertGaps(boolean[] requested, LoadedRangeTracker tracker) {
+        for (int from = 0; from < PAGES; from++) {
+            boolean covered = true;
+            for (int to = from + 1; to <= PAGES; to++) {
+                covered &= requested[to - 1];
+                assertEquals("Pages " + from + " to " + to, covered, tracker.contains(from * PAGE_MSEC, to * PAGE_MSEC));
+            }
+            // Partially covered page is still missing
+            assertEquals(requested[from], tracker.contains(from * PAGE_MSEC + 1, (from + 1) * PAGE_MSEC));
+            assertEquals(from > 0 && requested[from - 1] && requested[from],
+                    tracker.contains(from * PAGE_MSEC - 1, (from + 1) * PAGE_MSEC));
+        }
+    }
+
+}
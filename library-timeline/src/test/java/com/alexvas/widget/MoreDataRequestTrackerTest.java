@@ -0,0 +1,114 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Requests for more data should be throttled per layer, delayed exponentially while they
+ * return nothing and allowed again once an outstanding one is considered lost.
+ */
+public class MoreDataRequestTrackerTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+
+    @Test
+    public void singleOutstandingRequestPerLayer() {
+        MoreDataRequestTracker tracker = new MoreDataRequestTracker(2);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC));
+        assertTrue(tracker.isInFlight(0));
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 5_000));
+        // Other layers are independent
+        assertTrue(tracker.tryRequest(1, NOW_MSEC + 5_000));
+
+        tracker.onLoaded(0, false, NOW_MSEC + 5_000);
+        assertFalse(tracker.isInFlight(0));
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 5_000));
+    }
+
+    @Test
+    public void minIntervalIsKept() {
+        MoreDataRequestTracker tracker = new MoreDataRequestTracker(1);
+        tracker.setMinIntervalMsec(3_000);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC));
+        tracker.onLoaded(0, false, NOW_MSEC + 100);
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 2_999));
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 3_000));
+
+        tracker.onFailed(0, NOW_MSEC + 4_000);
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 6_999));
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 7_000));
+
+        // Negative interval means no interval
+        tracker.setMinIntervalMsec(-1);
+        tracker.onLoaded(0, false, NOW_MSEC + 8_000);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 10_000));
+        tracker.onLoaded(0, false, NOW_MSEC + 10_000);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 10_000));
+    }
+
+    @Test
+    public void emptyResultsBackOffExponentially() {
+        MoreDataRequestTracker tracker = new MoreDataRequestTracker(1);
+        long nowMsec = NOW_MSEC;
+        long backoffMsec = MoreDataRequestTracker.DEFAULT_MIN_INTERVAL_MSEC;
+        for (int i = 0; i < 12; i++) {
+            assertTrue(tracker.tryRequest(0, nowMsec));
+            tracker.onLoaded(0, true, nowMsec);
+            assertFalse(tracker.tryRequest(0, nowMsec + backoffMsec - 1));
+            nowMsec += backoffMsec;
+            // Doubles up to 5 minutes
+            backoffMsec = Math.min(backoffMsec * 2, 5 * 60 * 1000);
+        }
+        assertTrue(tracker.tryRequest(0, nowMsec));
+
+        // Records loaded, back to the minimum interval
+        tracker.onLoaded(0, false, nowMsec);
+        assertTrue(tracker.tryRequest(0, nowMsec + MoreDataRequestTracker.DEFAULT_MIN_INTERVAL_MSEC));
+        tracker.onLoaded(0, true, nowMsec + MoreDataRequestTracker.DEFAULT_MIN_INTERVAL_MSEC);
+        assertTrue(tracker.tryRequest(0, nowMsec + 2 * MoreDataRequestTracker.DEFAULT_MIN_INTERVAL_MSEC));
+    }
+
+    @Test
+    public void backoffStartsAtMinInterval() {
+        MoreDataRequestTracker tracker = new MoreDataRequestTracker(1);
+        tracker.setMinIntervalMsec(10_000);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC));
+        tracker.onLoaded(0, true, NOW_MSEC + 5_000);
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 14_999));
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 15_000));
+        tracker.onLoaded(0, true, NOW_MSEC + 15_000);
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 34_999));
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 35_000));
+    }
+
+    @Test
+    public void lostRequestTimesOut() {
+        MoreDataRequestTracker tracker = new MoreDataRequestTracker(1);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC));
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 29_999));
+        assertTrue(tracker.isInFlight(0));
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 30_000));
+        // Timeout counts from the repeated request
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 59_999));
+    }
+
+    @Test
+    public void resetAllowsRequestImmediately() {
+        MoreDataRequestTracker tracker = new MoreDataRequestTracker(1);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC));
+        tracker.onLoaded(0, true, NOW_MSEC);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 1_000));
+        tracker.onLoaded(0, true, NOW_MSEC + 1_000);
+        assertFalse(tracker.tryRequest(0, NOW_MSEC + 2_000));
+
+        tracker.reset(0);
+        assertFalse(tracker.isInFlight(0));
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 2_000));
+        // Backoff starts over
+        tracker.onLoaded(0, true, NOW_MSEC + 2_000);
+        assertTrue(tracker.tryRequest(0, NOW_MSEC + 3_000));
+    }
+
+}
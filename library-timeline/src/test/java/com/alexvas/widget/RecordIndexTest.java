@@ -0,0 +1,167 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Index lookups should return the same records as linear scans over records the view did
+ * before the index was added, for sorted records with overlaps and equal timestamps as well
+ * as for unsorted ones.
+ */
+public class RecordIndexTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+
+    @Test
+    public void sortedRecordsMatchLinearScan() {
+        Random random = new Random(1);
+        int[] sizes = {0, 1, 2, 31, 32, 33, 64, 100, 1000, 5000};
+        for (int size : sizes) {
+            for (int iteration = 0; iteration < 5; iteration++) {
+                TimeRecordStore store = createStore(random, size);
+                RecordIndex index = new RecordIndex(store);
+                assertTrue(index.isSorted());
+                assertMatchesLinearScan(random, store, index);
+            }
+        }
+    }
+
+    @Test
+    public void unsortedRecordsMatchLinearScan() {
+        Random random = new Random(2);
+        TimeRecordStore sorted = createStore(random, 300);
+        TimeRecordStore store = new TimeRecordStore(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            // Swap neighbors here and there
+            int j = i % 7 == 0 && i + 1 < sorted.size() ? i + 1 : i % 7 == 1 ? i - 1 : i;
+            store.add(sorted.getTimestampMsec(j), sorted.getDurationMsec(j), -1);
+        }
+        RecordIndex index = new RecordIndex(store);
+        assertFalse(index.isSorted());
+        assertMatchesLinearScan(random, store, index);
+    }
+
+    @Test
+    public void grownStoreMatchesLinearScan() {
+        Random random = new Random(3);
+        TimeRecordStore store = createStore(random, 100);
+        RecordIndex index = new RecordIndex(store);
+        for (int step = 0; step < 50; step++) {
+            boolean older = random.nextBoolean();
+            int count = random.nextInt(80);
+            TimeRecordStore added = new TimeRecordStore(count);
+            if (older) {
+                long timestampMsec = store.getTimestampMsec(store.size() - 1);
+                for (int i = 0; i < count; i++) {
+                    timestampMsec -= random.nextInt(600_000);
+                    added.add(timestampMsec, random.nextInt(3_600_000), -1);
+                }
+            } else {
+                long timestampMsec = store.getTimestampMsec(0) + count * 600_000L;
+                for (int i = 0; i < count; i++) {
+                    added.add(timestampMsec, random.nextInt(3_600_000), -1);
+                    timestampMsec -= random.nextInt(600_000);
+                }
+            }
+            store = store.grow(added, older);
+            index = new RecordIndex(store, index);
+            assertTrue(index.isSorted());
+        }
+        assertMatchesLinearScan(random, store, index);
+    }
+
+    private static void assertMatchesLinearScan(Random random, TimeRecordStore store, RecordIndex index) {
+        int size = store.size();
+        assertEquals(size, index.size());
+        long fromMsec = size > 0 ? store.getTimestampMsec(size - 1) - TimelineView.INTERVAL_HOUR_6 : NOW_MSEC;
+        long toMsec = size > 0 ? store.getTimestampMsec(0) + TimelineView.INTERVAL_HOUR_1 : NOW_MSEC;
+        for (int query = 0; query < 2000; query++) {
+            long timestampMsec;
+            if (size > 0 && query % 4 == 0) {
+                // Exactly at record start or end
+                int i = random.nextInt(size);
+                timestampMsec = random.nextBoolean() ? store.getTimestampMsec(i) : store.getEndMsec(i);
+            } else {
+                timestampMsec = fromMsec + (long) (random.nextDouble() * (toMsec - fromMsec));
+            }
+            assertEquals(getRecord(store, timestampMsec, false), index.getContainingIndex(timestampMsec, false));
+            assertEquals(getRecord(store, timestampMsec, true), index.getContainingIndex(timestampMsec, true));
+            assertEquals(getNextRecord(store, timestampMsec), index.getNextIndex(timestampMsec));
+            assertEquals(getPrevRecord(store, timestampMsec), index.getPrevIndex(timestampMsec));
+            assertEquals(getRecordOrNext(store, timestampMsec), index.getContainingOrNextIndex(timestampMsec));
+            int fromIndex = random.nextInt(size + 1);
+            assertEquals(getFirstEndedAfter(store, fromIndex, timestampMsec), index.getFirstIndexEndedAfter(fromIndex, timestampMsec));
+        }
+    }
+
+    // Linear scans the view did before, returning indexes instead of records
+
+    private static int getRecord(TimeRecordStore store, long timestampMsec, boolean inclusiveEnd) {
+        for (int i = 0; i < store.size(); i++) {
+            long endMsec = store.getEndMsec(i);
+            if (timestampMsec >= store.getTimestampMsec(i) &&
+                (timestampMsec < endMsec || (inclusiveEnd && timestampMsec == endMsec)))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int getNextRecord(TimeRecordStore store, long currentMsec) {
+        for (int i = 1; i < store.size(); i++) {
+            if (currentMsec < store.getTimestampMsec(i - 1) && currentMsec >= store.getTimestampMsec(i))
+                return i - 1;
+        }
+        return -1;
+    }
+
+    private static int getPrevRecord(TimeRecordStore store, long currentMsec) {
+        for (int i = 0; i < store.size(); i++) {
+            if (store.getTimestampMsec(i) < currentMsec)
+                return i;
+        }
+        return -1;
+    }
+
+    // Major1 record clicked, or the one after the clicked gap
+    private static int getRecordOrNext(TimeRecordStore store, long timestampMsec) {
+        for (int i = 0; i < store.size(); i++) {
+            if (timestampMsec >= store.getTimestampMsec(i) && timestampMsec <= store.getEndMsec(i))
+                return i;
+            else if (i > 0 && timestampMsec > store.getEndMsec(i) && timestampMsec < store.getTimestampMsec(i - 1))
+                return i - 1;
+        }
+        return -1;
+    }
+
+    private static int getFirstEndedAfter(TimeRecordStore store, int fromIndex, long timestampMsec) {
+        for (int i = fromIndex; i < store.size(); i++) {
+            if (store.getEndMsec(i) > timestampMsec)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns store with records newest first, some of them starting at the same time and
+     * some lasting for hours, so they overlap many newer ones.
+     */
+    private static TimeRecordStore createStore(Random random, int size) {
+        TimeRecordStore store = new TimeRecordStore(size);
+        long timestampMsec = NOW_MSEC;
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(10) != 0)
+                timestampMsec -= random.nextInt(600_000);
+            long durationMsec = random.nextInt(20) == 0 ?
+                    random.nextInt((int) TimelineView.INTERVAL_HOUR_6) :
+                    random.nextInt(300_000);
+            store.add(timestampMsec, durationMsec, -1);
+        }
+        return store;
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.alexvas.widget.TimelineView.TimeRecord;
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Appending k records should take O(k) regardless of the layer size and give the same
+ * store, index and pyramid as building them from all records.
+ */
+public class RecordLayerAppendTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+    private static final ThreadMXBean THREAD_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int APPENDED = 100;
+
+    @Test
+    public void appendNewerCostDoesNotDependOnSize() {
+        long small = getAppendAllocatedBytes(10_000, false, false);
+        long large = getAppendAllocatedBytes(1_000_000, false, false);
+        // Copying 1M records would allocate 20 MB
+        assertTrue("Allocated " + large + " bytes", large < APPENDED * 200);
+        assertTrue("Allocated " + small + " and " + large + " bytes", large <= small + 1024);
+    }
+
+    @Test
+    public void appendOlderCostDoesNotDependOnSize() {
+        long small = getAppendAllocatedBytes(10_000, true, false);
+        long large = getAppendAllocatedBytes(1_000_000, true, false);
+        assertTrue("Allocated " + large + " bytes", large < APPENDED * 200);
+        assertTrue("Allocated " + small + " and " + large + " bytes", large <= small + 1024);
+    }
+
+    @Test
+    public void appendWithPyramidCostDoesNotDependOnSize() {
+        for (boolean older : new boolean[] {false, true}) {
+            long small = getAppendAllocatedBytes(10_000, older, true);
+            long large = getAppendAllocatedBytes(200_000, older, true);
+            assertTrue("Allocated " + large + " bytes", large < APPENDED * 400);
+            assertTrue("Allocated " + small + " and " + large + " bytes", large <= small + 1024);
+        }
+    }
+
+    @Test
+    public void appendedLayerMatchesBuiltOne() {
+        Random random = new Random(1);
+        for (int iteration = 0; iteration < 50; iteration++) {
+            ArrayList<RecordLayer> layers = new ArrayList<>();
+            RecordLayer layer = new RecordLayer(TimeRecordStore.fromRecords(
+                createRecords(random, NOW_MSEC - TimelineView.INTERVAL_DAY_1, NOW_MSEC, random.nextInt(100))), true);
+            layers.add(layer);
+            for (int step = 0; step < 20; step++) {
+                // Append to older layers as well, they share arrays with newer ones
+                RecordLayer base = random.nextInt(4) == 0 ? layers.get(random.nextInt(layers.size())) : layer;
+                TimeRecordStore store = base.store;
+                int count = random.nextInt(50);
+                if (random.nextBoolean()) {
+                    long newestMsec = store.isEmpty() ? NOW_MSEC : store.getTimestampMsec(0);
+                    List<TimeRecord> records = createRecords(random, newestMsec, newestMsec + random.nextInt(7_200_000), count);
+                    layer = base.appendNewer(TimeRecordStore.fromRecords(records));
+                    if (base.pyramid != null)
+                        assertNotNull(layer.pyramid);
+                } else {
+                    long oldestMsec = store.isEmpty() ? NOW_MSEC : store.getTimestampMsec(store.size() - 1);
+                    List<TimeRecord> records = createRecords(random, oldestMsec - random.nextInt(7_200_000), oldestMsec, count);
+                    layer = base.appendOlder(TimeRecordStore.fromRecords(records));
+                }
+                // Pyramid is dropped if older records touch newer buckets, the view builds it again
+                if (layer.pyramid == null && random.nextBoolean())
+                    layer = layer.withPyramid(true);
+                layers.add(layer);
+            }
+            for (RecordLayer appended : layers)
+                assertSameAsBuilt(appended, random);
+        }
+    }
+
+    @Test
+    public void overlappingRecordsAreMerged() {
+        TimeRecordStore store = new TimeRecordStore(0);
+        store.add(NOW_MSEC - 1000, 2000, 1);
+        store.add(NOW_MSEC - 5000, 2000, 2);
+        TimeRecordStore records = new TimeRecordStore(0);
+        records.add(NOW_MSEC, 2000, 3);
+        records.add(NOW_MSEC - 3000, 2000, 4);
+        RecordLayer layer = new RecordLayer(store, false).appendNewer(records);
+        assertEquals(4, layer.store.size());
+        int[] colors = {3, 1, 4, 2};
+        for (int i = 0; i < colors.length; i++)
+            assertEquals(colors[i], layer.store.getColor(i));
+        assertEquals(2, layer.index.getContainingIndex(NOW_MSEC - 2500, false));
+    }
+
+    /**
+     * Returns average bytes allocated by appending records to a layer of the specified size.
+     * The first append, which grows arrays of the store created by the app, is not counted.
+     */
+    private static long getAppendAllocatedBytes(int size, boolean older, boolean withPyramid) {
+        RecordLayer layer = new RecordLayer(createStore(size, NOW_MSEC), withPyramid);
+        long newestMsec = NOW_MSEC;
+        long oldestMsec = layer.store.getTimestampMsec(size - 1);
+        long allocated = 0;
+        int appends = 40;
+        for (int pass = 0; pass <= appends; pass++) {
+            TimeRecordStore records = older ?
+                    createStore(APPENDED, oldestMsec - 60_000) :
+                    createStore(APPENDED, newestMsec + APPENDED * 60_000);
+            newestMsec = records.getTimestampMsec(0);
+            oldestMsec = records.getTimestampMsec(APPENDED - 1);
+            long start = getAllocatedBytes();
+            RecordLayer appended = older ? layer.appendOlder(records) : layer.appendNewer(records);
+            if (pass > 0) {
+                allocated += getAllocatedBytes() - start;
+                assertTrue(appended.store.sharesArrays(layer.store));
+            }
+            assertEquals(layer.store.size() + APPENDED, appended.store.size());
+            assertEquals(withPyramid, appended.pyramid != null);
+            layer = appended;
+        }
+        return allocated / appends;
+    }
+
+    private static void assertSameAsBuilt(RecordLayer layer, Random random) {
+        List<TimeRecord> records = layer.store.getRecords();
+        assertNotNull(records);
+        TimeRecordStore store = TimeRecordStore.fromRecords(new ArrayList<>(records));
+        int size = store.size();
+        assertEquals(size, layer.store.size());
+        for (int i = 0; i < size; i++) {
+            assertSame(store.getRecord(i), layer.store.getRecord(i));
+            assertEquals(store.getTimestampMsec(i), layer.store.getTimestampMsec(i));
+            assertEquals(store.getEndMsec(i), layer.store.getEndMsec(i));
+            assertEquals(store.getColor(i), layer.store.getColor(i));
+        }
+        if (size == 0)
+            return;
+
+        RecordIndex index = new RecordIndex(store);
+        assertEquals(index.isSorted(), layer.index.isSorted());
+        long fromMsec = store.getTimestampMsec(size - 1) - TimelineView.INTERVAL_HOUR_6;
+        long toMsec = store.getTimestampMsec(0) + TimelineView.INTERVAL_HOUR_1;
+        for (int query = 0; query < 100; query++) {
+            long timestampMsec = fromMsec + (long) (random.nextDouble() * (toMsec - fromMsec));
+            int fromIndex = random.nextInt(size + 1);
+            int expected = -1;
+            for (int i = fromIndex; i < size && expected == -1; i++) {
+                if (store.getEndMsec(i) > timestampMsec)
+                    expected = i;
+            }
+            assertEquals(expected, layer.index.getFirstIndexEndedAfter(fromIndex, timestampMsec));
+            assertEquals(index.getContainingIndex(timestampMsec, true), layer.index.getContainingIndex(timestampMsec, true));
+        }
+
+        CoveragePyramid built = CoveragePyramid.build(store);
+        if (layer.pyramid == null || built == null)
+            return;
+        for (int level = 0; level < CoveragePyramid.BUCKETS_MSEC.length; level++) {
+            float msecPerPixel = CoveragePyramid.getBucketMsec(level);
+            if (built.getLevel(msecPerPixel) != level || layer.pyramid.getLevel(msecPerPixel) != level)
+                continue;
+            assertEquals(built.size(level), layer.pyramid.size(level));
+            for (int i = 0; i < built.size(level); i++) {
+                assertEquals(built.getBucket(level, i), layer.pyramid.getBucket(level, i));
+                assertEquals(built.getLastIndex(level, i), layer.pyramid.getLastIndex(level, i));
+            }
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns records started in [oldestMsec, newestMsec], newest first. Some of them are long.
+     */
+    private static List<TimeRecord> createRecords(Random random, long oldestMsec, long newestMsec, int count) {
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; i++)
+            timestamps[i] = oldestMsec + (long) (random.nextDouble() * (newestMsec - oldestMsec));
+        Arrays.sort(timestamps);
+        ArrayList<TimeRecord> records = new ArrayList<>(count);
+        for (int i = count - 1; i >= 0; i--) {
+            long durationMsec = random.nextInt(10) == 0 ? random.nextInt(14_400_000) : random.nextInt(300_000);
+            records.add(new TimeRecord(timestamps[i], durationMsec, i, random.nextInt()));
+        }
+        return records;
+    }
+
+    /**
+     * Returns store with records a minute apart, newest first, starting at newestMsec.
+     */
+    private static TimeRecordStore createStore(int size, long newestMsec) {
+        TimeRecordStore store = new TimeRecordStore(size);
+        for (int i = 0; i < size; i++)
+            store.add(newestMsec - i * 60_000L, 10_000, i % 3 == 0 ? 0xff0000ff : -1);
+        return store;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Canvas;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Panning should draw cached tiles and rasterize only tiles of columns entering the view,
+ * while changing zoom should rasterize every tile again.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RecordTileCacheTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 100;
+    private static final int MAX_BYTES = 64 * 1024 * 1024;
+
+    @Test
+    public void panRendersOnlyNewColumns() {
+        CountingRenderer renderer = new CountingRenderer();
+        RecordTileCache cache = new RecordTileCache(MAX_BYTES, renderer);
+        Canvas canvas = new Canvas();
+        long intervalMsec = TimelineView.INTERVAL_HOUR_1;
+        long durationMsec = intervalMsec * RecordTileCache.TILE_WIDTH / WIDTH;
+        HashSet<Long> rendered = new HashSet<>();
+        Random random = new Random(1);
+        long minValue = NOW_MSEC;
+        for (int step = 0; step < 200; step++) {
+            // Dragging both ways, by under a pixel to a few tiles
+            minValue += (long) ((random.nextDouble() * 2 - 1) * durationMsec * (step % 10 == 0 ? 3 : 0.2));
+            ArrayList<Long> expected = new ArrayList<>();
+            long first = Math.floorDiv(minValue, durationMsec);
+            long last = Math.floorDiv(minValue + intervalMsec, durationMsec);
+            for (long index = first; index <= last; index++) {
+                if (rendered.add(index))
+                    expected.add(index * durationMsec);
+            }
+            renderer.startMsecs.clear();
+            cache.draw(canvas, TimelineView.LAYER_MAJOR1, minValue, intervalMsec, WIDTH, 0, HEIGHT);
+            assertEquals("Step " + step, expected, renderer.startMsecs);
+        }
+        assertEquals(rendered.size(), renderer.calls);
+    }
+
+    @Test
+    public void zoomRendersEveryTile() {
+        CountingRenderer renderer = new CountingRenderer();
+        RecordTileCache cache = new RecordTileCache(MAX_BYTES, renderer);
+        Canvas canvas = new Canvas();
+        long intervalMsec = TimelineView.INTERVAL_HOUR_1;
+        cache.draw(canvas, TimelineView.LAYER_MAJOR1, NOW_MSEC, intervalMsec, WIDTH, 0, HEIGHT);
+        int tiles = renderer.calls;
+        cache.draw(canvas, TimelineView.LAYER_MAJOR1, NOW_MSEC, intervalMsec, WIDTH, 0, HEIGHT);
+        assertEquals(tiles, renderer.calls);
+
+        // Interval of an animated zoom frame, tile duration differs from every cached one
+        long zoomedMsec = intervalMsec + intervalMsec / 10;
+        long durationMsec = zoomedMsec * RecordTileCache.TILE_WIDTH / WIDTH;
+        int zoomedTiles = (int) (Math.floorDiv(NOW_MSEC + zoomedMsec, durationMsec) - Math.floorDiv(NOW_MSEC, durationMsec) + 1);
+        cache.draw(canvas, TimelineView.LAYER_MAJOR1, NOW_MSEC, zoomedMsec, WIDTH, 0, HEIGHT);
+        assertEquals(tiles + zoomedTiles, renderer.calls);
+
+        // Other layers and heights have their own tiles
+        cache.draw(canvas, TimelineView.LAYER_MAJOR2, NOW_MSEC, intervalMsec, WIDTH, 0, HEIGHT);
+        assertEquals(2 * tiles + zoomedTiles, renderer.calls);
+        cache.draw(canvas, TimelineView.LAYER_MAJOR1, NOW_MSEC, intervalMsec, WIDTH, 0, HEIGHT / 2);
+        assertEquals(3 * tiles + zoomedTiles, renderer.calls);
+    }
+
+    private static final class CountingRenderer implements RecordTileCache.Renderer {
+        final ArrayList<Long> startMsecs = new ArrayList<>();
+        int calls = 0;
+
+        @Override
+        public void renderTile(Canvas canvas, int layer, long startMsec, long endMsec, float msecInPixels, int height) {
+            startMsecs.add(startMsec);
+            calls++;
+        }
+    }
+
+}
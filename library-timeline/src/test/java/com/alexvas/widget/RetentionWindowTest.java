@@ -0,0 +1,170 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+/**
+ * Retention should evict far records in batches of whole pages, keep visible records and
+ * newer records without data source, and report exactly the evicted ranges.
+ */
+public class RetentionWindowTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+    // A record a minute, newest first
+    private static final long STEP_MSEC = TimelineView.INTERVAL_MIN_1;
+    private static final long PAGE_MSEC = TimelineView.INTERVAL_HOUR_1;
+    private static final long INTERVAL_MSEC = TimelineView.INTERVAL_MIN_15;
+
+    @Test
+    public void newerRecordsAreEvictedOnlyWithDataSource() {
+        RecordIndex index = createIndex(24 * 60);
+        RetentionWindow window = new RetentionWindow();
+        window.maxDistanceMsec = TimelineView.INTERVAL_HOUR_6;
+        long selectedMsec = getStart(12 * 60);
+
+        LoadedRangeTracker loaded = createLoaded(index);
+        assertTrue(window.compute(index, selectedMsec, INTERVAL_MSEC, false, PAGE_MSEC, loaded));
+        assertEquals(0, window.from);
+        assertTrue(window.to < index.size());
+        assertTrue(loaded.contains(getStart(0), getPageEnd(getStart(0))));
+
+        loaded = createLoaded(index);
+        assertTrue(window.compute(index, selectedMsec, INTERVAL_MSEC, true, PAGE_MSEC, loaded));
+        assertTrue(window.from > 0);
+        // Newest kept record is the newest one of its page
+        long newestKeptMsec = index.getStart(window.from);
+        assertTrue(index.getStart(window.from - 1) >= getPageEnd(newestKeptMsec));
+        assertTrue(newestKeptMsec < getPageEnd(selectedMsec + window.maxDistanceMsec));
+        assertFalse(loaded.contains(getPageEnd(newestKeptMsec), getPageEnd(newestKeptMsec) + 1));
+        assertTrue(loaded.contains(getPageStart(newestKeptMsec), getPageEnd(newestKeptMsec)));
+    }
+
+    @Test
+    public void recordsAreEvictedInBatches() {
+        RetentionWindow window = new RetentionWindow();
+        window.maxRecords = 100;
+        // Up to a quarter over the limit is kept
+        RecordIndex index = createIndex(125);
+        assertFalse(window.compute(index, NOW_MSEC, INTERVAL_MSEC, false, PAGE_MSEC, createLoaded(index)));
+        assertEquals(0, window.from);
+        assertEquals(125, window.to);
+
+        index = createIndex(126);
+        assertTrue(window.compute(index, NOW_MSEC, INTERVAL_MSEC, false, PAGE_MSEC, createLoaded(index)));
+        assertEquals(0, window.from);
+        assertEquals(100, window.to);
+
+        // Distance limit has the same slack
+        window.maxRecords = 0;
+        window.maxDistanceMsec = 100 * STEP_MSEC;
+        index = createIndex(126);
+        assertFalse(window.compute(index, NOW_MSEC, INTERVAL_MSEC, false, PAGE_MSEC, createLoaded(index)));
+        index = createIndex(127);
+        assertTrue(window.compute(index, NOW_MSEC, INTERVAL_MSEC, false, PAGE_MSEC, createLoaded(index)));
+        assertEquals(101, window.to);
+    }
+
+    @Test
+    public void windowIsCenteredWithDataSource() {
+        RecordIndex index = createIndex(24 * 60);
+        RetentionWindow window = new RetentionWindow();
+        window.maxRecords = 4 * 60;
+        long selectedMsec = getStart(12 * 60);
+        LoadedRangeTracker loaded = createLoaded(index);
+        assertTrue(window.compute(index, selectedMsec, INTERVAL_MSEC, true, PAGE_MSEC, loaded));
+        // Whole pages around the selected record, up to a page more than the limit
+        assertTrue(window.from <= 10 * 60 && window.to >= 14 * 60);
+        assertTrue(window.to - window.from <= window.maxRecords + 60);
+        assertTrue(index.getStart(window.from - 1) >= getPageEnd(index.getStart(window.from)));
+        assertTrue(index.getStart(window.to) < getPageStart(index.getStart(window.to - 1)));
+        // Evicted pages are requested again
+        assertFalse(loaded.contains(index.getStart(window.to), index.getStart(window.to) + 1));
+        assertFalse(loaded.contains(index.getStart(window.from - 1), index.getStart(window.from - 1) + 1));
+        assertTrue(loaded.contains(index.getStart(window.to - 1), getPageEnd(index.getStart(window.from))));
+    }
+
+    @Test
+    public void visibleRecordsAreKept() {
+        RecordIndex index = createIndex(1_000);
+        RetentionWindow window = new RetentionWindow();
+        window.maxRecords = 10;
+        window.maxDistanceMsec = STEP_MSEC;
+        long intervalMsec = 200 * STEP_MSEC;
+        assertTrue(window.compute(index, getStart(500), intervalMsec, true, PAGE_MSEC, createLoaded(index)));
+        assertTrue(window.from <= index.getFirstIndexStartedNotAfter(getStart(500) + intervalMsec / 2));
+        assertTrue(window.to >= index.getFirstIndexStartedBefore(getStart(500) - intervalMsec / 2));
+    }
+
+    @Test
+    public void evictedRangesAreReported() {
+        RecordIndex index = createIndex(24 * 60);
+        RetentionWindow window = new RetentionWindow();
+        window.maxRecords = 4 * 60;
+        assertTrue(window.compute(index, getStart(12 * 60), INTERVAL_MSEC, true, PAGE_MSEC, createLoaded(index)));
+        ArrayList<long[]> evicted = new ArrayList<>();
+        window.reportEvicted(TimelineView.LAYER_MAJOR2, index, (layer, oldestMsec, newestMsec, numRecords) -> {
+            assertEquals(TimelineView.LAYER_MAJOR2, layer);
+            evicted.add(new long[] {oldestMsec, newestMsec, numRecords});
+        });
+        assertEquals(2, evicted.size());
+        // Newer ones first, ranges span all evicted records and no kept ones
+        assertEquals(index.getStart(window.from - 1), evicted.get(0)[0]);
+        assertEquals(index.getStart(0), evicted.get(0)[1]);
+        assertEquals(window.from, evicted.get(0)[2]);
+        assertEquals(index.getStart(index.size() - 1), evicted.get(1)[0]);
+        assertEquals(index.getStart(window.to), evicted.get(1)[1]);
+        assertEquals(index.size() - window.to, evicted.get(1)[2]);
+        assertTrue(evicted.get(0)[0] > index.getStart(window.from));
+        assertTrue(evicted.get(1)[1] < index.getStart(window.to - 1));
+    }
+
+    @Test
+    public void unsortedRecordsAreKept() {
+        TimeRecordStore store = new TimeRecordStore(300);
+        for (int i = 0; i < 300; i++)
+            store.add(NOW_MSEC - (i ^ 1) * STEP_MSEC, 1000);
+        RecordIndex index = new RecordIndex(store);
+        RetentionWindow window = new RetentionWindow();
+        window.maxRecords = 100;
+        assertFalse(window.compute(index, NOW_MSEC, INTERVAL_MSEC, true, PAGE_MSEC, createLoaded(index)));
+        assertEquals(0, window.from);
+        assertEquals(300, window.to);
+    }
+
+    private static long getStart(int index) {
+        return NOW_MSEC - index * STEP_MSEC;
+    }
+
+    private static long getPageStart(long timestampMsec) {
+        return Math.floorDiv(timestampMsec, PAGE_MSEC) * PAGE_MSEC;
+    }
+
+    private static long getPageEnd(long timestampMsec) {
+        return getPageStart(timestampMsec) + PAGE_MSEC;
+    }
+
+    /**
+     * Returns index of records a minute apart before NOW_MSEC, newest first.
+     */
+    private static RecordIndex createIndex(int size) {
+        TimeRecordStore store = new TimeRecordStore(size);
+        for (int i = 0; i < size; i++)
+            store.add(getStart(i), 1000);
+        return new RecordIndex(store);
+    }
+
+    /**
+     * Returns ranges of all pages of the records, as if they were all loaded from data source.
+     */
+    private static LoadedRangeTracker createLoaded(RecordIndex index) {
+        LoadedRangeTracker loaded = new LoadedRangeTracker();
+        loaded.add(getPageStart(index.getStart(index.size() - 1)), getPageEnd(index.getStart(0)));
+        return loaded;
+    }
+
+}
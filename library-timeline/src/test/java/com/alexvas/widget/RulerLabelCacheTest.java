@@ -0,0 +1,117 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Cached labels should be found by tick timestamp and granularity, the least recently used
+ * one should be evicted when full and label buffers should be reused.
+ */
+public class RulerLabelCacheTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+    private static final long INTERVAL_MSEC = TimelineView.INTERVAL_HOUR_1;
+
+    @Test
+    public void findsPutLabel() {
+        RulerLabelCache cache = new RulerLabelCache();
+        assertEquals(-1, cache.find(NOW_MSEC, INTERVAL_MSEC));
+        int slot = cache.put(NOW_MSEC, INTERVAL_MSEC, "12:00".toCharArray(), 5, false, 40, 12);
+        assertEquals(slot, cache.find(NOW_MSEC, INTERVAL_MSEC));
+        assertEquals("12:00", getLabel(cache, slot));
+        assertFalse(cache.isDate(slot));
+        assertEquals(40, cache.getWidth(slot));
+        assertEquals(12, cache.getHeight(slot));
+
+        // Same tick at other granularity is another label
+        assertEquals(-1, cache.find(NOW_MSEC, TimelineView.INTERVAL_DAY_1));
+        int dateSlot = cache.put(NOW_MSEC, TimelineView.INTERVAL_DAY_1, "Nov 14".toCharArray(), 6, true, 50, 12);
+        assertTrue(dateSlot != slot);
+        assertTrue(cache.isDate(dateSlot));
+        assertEquals(slot, cache.find(NOW_MSEC, INTERVAL_MSEC));
+        assertEquals(dateSlot, cache.find(NOW_MSEC, TimelineView.INTERVAL_DAY_1));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        RulerLabelCache cache = new RulerLabelCache();
+        for (int i = 0; i < RulerLabelCache.CAPACITY; i++)
+            putTick(cache, i);
+        // Tick 0 is used again, so tick 1 is the least recently used one
+        int slot0 = cache.find(getTickMsec(0), INTERVAL_MSEC);
+        int slot1 = cache.find(getTickMsec(1), INTERVAL_MSEC);
+        for (int i = 2; i < RulerLabelCache.CAPACITY; i++)
+            assertTrue(cache.find(getTickMsec(i), INTERVAL_MSEC) >= 0);
+        cache.find(getTickMsec(0), INTERVAL_MSEC);
+
+        int slot = putTick(cache, RulerLabelCache.CAPACITY);
+        assertEquals(slot1, slot);
+        assertEquals(-1, cache.find(getTickMsec(1), INTERVAL_MSEC));
+        assertEquals(slot0, cache.find(getTickMsec(0), INTERVAL_MSEC));
+        for (int i = 2; i <= RulerLabelCache.CAPACITY; i++)
+            assertTrue(cache.find(getTickMsec(i), INTERVAL_MSEC) >= 0);
+    }
+
+    @Test
+    public void reusesLabelBuffers() {
+        RulerLabelCache cache = new RulerLabelCache();
+        for (int i = 0; i < RulerLabelCache.CAPACITY; i++)
+            putTick(cache, i);
+        int slot = cache.find(getTickMsec(0), INTERVAL_MSEC);
+        char[] buffer = cache.getLabel(slot);
+
+        // Evicting tick 0 reuses its buffer for a label that fits
+        for (int i = 1; i < RulerLabelCache.CAPACITY; i++)
+            cache.find(getTickMsec(i), INTERVAL_MSEC);
+        assertEquals(slot, cache.put(NOW_MSEC - 1, INTERVAL_MSEC, "0:00".toCharArray(), 4, false, 30, 12));
+        assertSame(buffer, cache.getLabel(slot));
+        assertEquals("0:00", getLabel(cache, slot));
+
+        // Longer label than the buffer holds gets a new one
+        char[] longLabel = new char[buffer.length + 10];
+        Arrays.fill(longLabel, 'x');
+        for (int i = 1; i < RulerLabelCache.CAPACITY; i++)
+            cache.find(getTickMsec(i), INTERVAL_MSEC);
+        assertEquals(slot, cache.put(NOW_MSEC - 2, INTERVAL_MSEC, longLabel, longLabel.length, true, 90, 12));
+        assertNotSame(buffer, cache.getLabel(slot));
+        assertEquals(longLabel.length, cache.getLength(slot));
+        assertArrayEquals(longLabel, Arrays.copyOf(cache.getLabel(slot), cache.getLength(slot)));
+    }
+
+    @Test
+    public void clearDropsLabels() {
+        RulerLabelCache cache = new RulerLabelCache();
+        for (int i = 0; i < RulerLabelCache.CAPACITY; i++)
+            putTick(cache, i);
+        cache.clear();
+        for (int i = 0; i < RulerLabelCache.CAPACITY; i++)
+            assertEquals(-1, cache.find(getTickMsec(i), INTERVAL_MSEC));
+        // Cache is filled from the first slot again, no eviction needed
+        for (int i = 0; i < RulerLabelCache.CAPACITY; i++)
+            assertEquals(i, putTick(cache, 100 + i));
+        for (int i = 0; i < RulerLabelCache.CAPACITY; i++)
+            assertEquals(i, cache.find(getTickMsec(100 + i), INTERVAL_MSEC));
+    }
+
+    private static long getTickMsec(int tick) {
+        return NOW_MSEC + tick * INTERVAL_MSEC;
+    }
+
+    private static int putTick(RulerLabelCache cache, int tick) {
+        char[] label = String.valueOf(tick).toCharArray();
+        return cache.put(getTickMsec(tick), INTERVAL_MSEC, label, label.length, false, 10 * label.length, 12);
+    }
+
+    private static String getLabel(RulerLabelCache cache, int slot) {
+        return new String(cache.getLabel(slot), 0, cache.getLength(slot));
+    }
+
+}
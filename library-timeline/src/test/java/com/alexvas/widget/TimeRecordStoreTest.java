@@ -0,0 +1,173 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.alexvas.widget.TimelineView.TimeRecord;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Merged and sorted stores should hold the same records in the same order as stable
+ * sorting of the records.
+ */
+public class TimeRecordStoreTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+
+    @Test
+    public void mergeMatchesStableSort() {
+        Random random = new Random(1);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            // Small time span, so stores interleave and have equal timestamps
+            long spanMsec = 1 + random.nextInt(random.nextBoolean() ? 20_000 : 2_000_000);
+            List<TimeRecord> first = createRecords(random, NOW_MSEC - random.nextInt(1_000_000), spanMsec, random.nextInt(40), 0);
+            List<TimeRecord> second = createRecords(random, NOW_MSEC - random.nextInt(1_000_000), spanMsec, random.nextInt(40), 1000);
+            TimeRecordStore merged = TimeRecordStore.merge(TimeRecordStore.fromRecords(first), TimeRecordStore.fromRecords(second));
+            assertRecords(sortStable(first, second), merged);
+        }
+    }
+
+    @Test
+    public void mergeConcatenatesEitherWay() {
+        Random random = new Random(2);
+        List<TimeRecord> newer = createRecords(random, NOW_MSEC, 100_000, 20, 0);
+        List<TimeRecord> older = createRecords(random, NOW_MSEC - 200_000, 100_000, 20, 1000);
+        List<TimeRecord> expected = new ArrayList<>(newer);
+        expected.addAll(older);
+        assertRecords(expected, TimeRecordStore.merge(TimeRecordStore.fromRecords(newer), TimeRecordStore.fromRecords(older)));
+        assertRecords(expected, TimeRecordStore.merge(TimeRecordStore.fromRecords(older), TimeRecordStore.fromRecords(newer)));
+        assertRecords(newer, TimeRecordStore.merge(TimeRecordStore.fromRecords(newer), TimeRecordStore.fromRecords(new ArrayList<>())));
+        assertRecords(older, TimeRecordStore.merge(TimeRecordStore.fromRecords(new ArrayList<>()), TimeRecordStore.fromRecords(older)));
+    }
+
+    @Test
+    public void mergeKeepsFirstStoreOnEqualTimestamps() {
+        TimeRecordStore first = new TimeRecordStore(0);
+        first.add(NOW_MSEC, 2000, 1);
+        first.add(NOW_MSEC - 5000, 2000, 2);
+        TimeRecordStore second = new TimeRecordStore(0);
+        second.add(NOW_MSEC, 3000, 3);
+        second.add(NOW_MSEC - 5000, 3000, 4);
+        TimeRecordStore merged = TimeRecordStore.merge(first, second);
+        int[] colors = {1, 3, 2, 4};
+        for (int i = 0; i < colors.length; i++)
+            assertEquals(colors[i], merged.getColor(i));
+        assertNull(merged.getRecords());
+
+        // Touching stores are concatenated, the first one still goes first
+        first = new TimeRecordStore(0);
+        first.add(NOW_MSEC, 2000, 1);
+        second = new TimeRecordStore(0);
+        second.add(NOW_MSEC, 3000, 2);
+        second.add(NOW_MSEC - 5000, 3000, 3);
+        merged = TimeRecordStore.merge(first, second);
+        colors = new int[] {1, 2, 3};
+        for (int i = 0; i < colors.length; i++)
+            assertEquals(colors[i], merged.getColor(i));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mergeRejectsStoresWithAndWithoutRecords() {
+        TimeRecordStore first = TimeRecordStore.fromRecords(createRecords(new Random(3), NOW_MSEC, 100_000, 5, 0));
+        TimeRecordStore second = new TimeRecordStore(0);
+        second.add(NOW_MSEC - 200_000, 2000, -1);
+        TimeRecordStore.merge(first, second);
+    }
+
+    @Test
+    public void sortDescendingIsStable() {
+        Random random = new Random(4);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            int count = random.nextInt(300);
+            ArrayList<TimeRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                // Few distinct timestamps, so most of them are equal
+                long timestampMsec = NOW_MSEC - random.nextInt(1 + random.nextInt(50)) * 60_000L;
+                records.add(new TimeRecord(timestampMsec, 2000, i, i));
+            }
+            TimeRecordStore sorted = TimeRecordStore.fromRecords(records).sortDescending(random.nextBoolean());
+            assertRecords(sortStable(records, new ArrayList<>()), sorted);
+        }
+    }
+
+    @Test
+    public void sortDescendingHandlesWideTimestampRange() {
+        // Range too wide to pack timestamps with record indexes into long keys
+        long[] timestamps = {0, Long.MAX_VALUE / 2, -1000, Long.MAX_VALUE / 2, 5000, 0, Long.MIN_VALUE / 2};
+        ArrayList<TimeRecord> records = new ArrayList<>();
+        for (int i = 0; i < timestamps.length; i++)
+            records.add(new TimeRecord(timestamps[i], 2000, i, i));
+        TimeRecordStore sorted = TimeRecordStore.fromRecords(records).sortDescending(false);
+        assertRecords(sortStable(records, new ArrayList<>()), sorted);
+
+        // Just below and at the packing limit for 8 records, 3 index bits
+        for (long range : new long[] {(1L << 60) - 1, 1L << 60}) {
+            records.clear();
+            for (int i = 0; i < 8; i++)
+                records.add(new TimeRecord(i % 3 == 0 ? 0 : i % 3 == 1 ? range : range / 2, 2000, i, i));
+            sorted = TimeRecordStore.fromRecords(records).sortDescending(false);
+            assertRecords(sortStable(records, new ArrayList<>()), sorted);
+        }
+    }
+
+    @Test
+    public void sortDescendingKeepsPayloads() {
+        TimeRecordStore store = new TimeRecordStore(0);
+        store.add(NOW_MSEC - 5000, 2000, 0);
+        store.add(NOW_MSEC, 2000, 1);
+        store.add(NOW_MSEC - 5000, 2000, 2);
+        store.setPayloadProvider(index -> "payload" + index);
+        TimeRecordStore sorted = store.sortDescending(false);
+        String[] payloads = {"payload1", "payload0", "payload2"};
+        for (int i = 0; i < payloads.length; i++) {
+            assertEquals(i == 0 ? 1 : i == 1 ? 0 : 2, sorted.getColor(i));
+            assertEquals(payloads[i], sorted.getPayload(i));
+        }
+    }
+
+    private static void assertRecords(List<TimeRecord> expected, TimeRecordStore store) {
+        assertEquals(expected.size(), store.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TimeRecord record = expected.get(i);
+            assertSame(record, store.getRecord(i));
+            assertEquals(record.timestampMsec, store.getTimestampMsec(i));
+            assertEquals(record.durationMsec, store.getDurationMsec(i));
+            assertEquals(record.color, store.getColor(i));
+        }
+    }
+
+    /**
+     * Returns records of both lists sorted in descending order, records of the first list go
+     * first on equal timestamps.
+     */
+    private static List<TimeRecord> sortStable(List<TimeRecord> first, List<TimeRecord> second) {
+        ArrayList<TimeRecord> records = new ArrayList<>(first);
+        records.addAll(second);
+        // List.sort() is a stable merge sort
+        records.sort((a, b) -> Long.compare(b.timestampMsec, a.timestampMsec));
+        return records;
+    }
+
+    /**
+     * Returns records started within spanMsec before newestMsec, newest first, often several
+     * at the same time. Colors are numbered starting at firstColor to tell records apart.
+     */
+    private static List<TimeRecord> createRecords(Random random, long newestMsec, long spanMsec, int count, int firstColor) {
+        ArrayList<TimeRecord> records = new ArrayList<>(count);
+        long timestampMsec = newestMsec;
+        long stepMsec = Math.max(1, 2 * spanMsec / Math.max(1, count));
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) != 0)
+                timestampMsec -= random.nextInt((int) Math.min(Integer.MAX_VALUE, stepMsec));
+            records.add(new TimeRecord(timestampMsec, random.nextInt(300_000), null, firstColor + i));
+        }
+        return records;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Animations should end exactly on their targets at any zoom level, report changed values
+ * once per step and stop after their last value.
+ */
+public class TimelineAnimatorTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+    private static final long DURATION_MSEC = TimelineView.ANIMATION_DURATION_MSEC;
+
+    // Deltas from a pixel to years, above Integer.MAX_VALUE and above 2^53
+    private static final long[] DELTAS = {
+            1,
+            -7,
+            TimelineView.INTERVAL_MIN_1,
+            TimelineView.INTERVAL_DAY_30,
+            -TimelineView.INTERVAL_DAY_30,
+            Integer.MAX_VALUE + 1L,
+            10 * 365 * TimelineView.INTERVAL_DAY_1,
+            -NOW_MSEC,
+            (1L << 53) + 1,
+            Long.MAX_VALUE / 2
+    };
+
+    @Test
+    public void panEndsOnTarget() {
+        for (long delta : DELTAS) {
+            for (long end : new long[] {DURATION_MSEC, DURATION_MSEC + 1, 10 * DURATION_MSEC}) {
+                TimelineAnimator animator = new TimelineAnimator();
+                animator.startPan(NOW_MSEC, NOW_MSEC + delta, NOW_MSEC, DURATION_MSEC);
+                assertEquals(TimelineAnimator.ANIMATED_TIME, animator.step(NOW_MSEC + end));
+                assertEquals("Delta " + delta, NOW_MSEC + delta, animator.getTimeMsec());
+                assertFalse(animator.isRunning());
+            }
+        }
+    }
+
+    @Test
+    public void zoomEndsOnTarget() {
+        for (long delta : DELTAS) {
+            long fromMsec = TimelineView.INTERVAL_MIN_1;
+            TimelineAnimator animator = new TimelineAnimator();
+            animator.startZoom(fromMsec, fromMsec + delta, NOW_MSEC, DURATION_MSEC);
+            assertTrue(animator.isZooming());
+            // Intermediate frames first, the last one lands past the duration
+            for (long time = 0; time < DURATION_MSEC; time += 16)
+                assertEquals(TimelineAnimator.ANIMATED_INTERVAL, animator.step(NOW_MSEC + time));
+            assertEquals(TimelineAnimator.ANIMATED_INTERVAL, animator.step(NOW_MSEC + DURATION_MSEC + 5));
+            assertEquals("Delta " + delta, fromMsec + delta, animator.getIntervalMsec());
+            assertFalse(animator.isZooming());
+        }
+    }
+
+    @Test
+    public void stepStopsAfterLastValue() {
+        TimelineAnimator animator = new TimelineAnimator();
+        assertEquals(0, animator.step(NOW_MSEC));
+
+        animator.startPan(0, 1_000, NOW_MSEC, DURATION_MSEC);
+        animator.startZoom(TimelineView.INTERVAL_HOUR_1, TimelineView.INTERVAL_MIN_15, NOW_MSEC, 2 * DURATION_MSEC);
+        assertEquals(TimelineAnimator.TIME_PAN, animator.getTimeKind());
+        int both = TimelineAnimator.ANIMATED_TIME | TimelineAnimator.ANIMATED_INTERVAL;
+        assertEquals(both, animator.step(NOW_MSEC + DURATION_MSEC / 2));
+        long timeMsec = animator.getTimeMsec();
+        assertTrue(timeMsec > 0 && timeMsec < 1_000);
+
+        // Pan reaches its end, its last value is still reported
+        assertEquals(both, animator.step(NOW_MSEC + DURATION_MSEC));
+        assertEquals(1_000, animator.getTimeMsec());
+        assertEquals(TimelineAnimator.TIME_NONE, animator.getTimeKind());
+        assertTrue(animator.isRunning());
+
+        // Only zoom is left
+        assertEquals(TimelineAnimator.ANIMATED_INTERVAL, animator.step(NOW_MSEC + 2 * DURATION_MSEC));
+        assertEquals(TimelineView.INTERVAL_MIN_15, animator.getIntervalMsec());
+        assertFalse(animator.isRunning());
+        assertEquals(0, animator.step(NOW_MSEC + 3 * DURATION_MSEC));
+        assertEquals(1_000, animator.getTimeMsec());
+        assertEquals(TimelineView.INTERVAL_MIN_15, animator.getIntervalMsec());
+    }
+
+    @Test
+    public void stepBeforeStartKeepsStartValue() {
+        TimelineAnimator animator = new TimelineAnimator();
+        animator.startFling(NOW_MSEC, -TimelineView.INTERVAL_HOUR_1, NOW_MSEC, 0);
+        assertEquals(TimelineAnimator.TIME_FLING, animator.getTimeKind());
+        // Zero duration is one frame long
+        assertEquals(TimelineAnimator.ANIMATED_TIME, animator.step(NOW_MSEC - 10));
+        assertEquals(NOW_MSEC, animator.getTimeMsec());
+        assertEquals(TimelineAnimator.ANIMATED_TIME, animator.step(NOW_MSEC + 1));
+        assertEquals(NOW_MSEC - TimelineView.INTERVAL_HOUR_1, animator.getTimeMsec());
+        assertFalse(animator.isRunning());
+    }
+
+    @Test
+    public void cancelsAreIndependent() {
+        TimelineAnimator animator = new TimelineAnimator();
+        animator.startFling(0, 1_000, NOW_MSEC, DURATION_MSEC);
+        animator.startZoom(TimelineView.INTERVAL_HOUR_1, TimelineView.INTERVAL_HOUR_6, NOW_MSEC, DURATION_MSEC);
+        animator.cancelTime();
+        assertEquals(TimelineAnimator.TIME_NONE, animator.getTimeKind());
+        assertTrue(animator.isZooming());
+        assertEquals(TimelineAnimator.ANIMATED_INTERVAL, animator.step(NOW_MSEC + DURATION_MSEC / 2));
+
+        animator.startPan(0, 1_000, NOW_MSEC, DURATION_MSEC);
+        animator.cancelZoom();
+        assertFalse(animator.isZooming());
+        assertEquals(TimelineAnimator.TIME_PAN, animator.getTimeKind());
+        assertEquals(TimelineAnimator.ANIMATED_TIME, animator.step(NOW_MSEC + DURATION_MSEC / 2));
+
+        animator.startZoom(TimelineView.INTERVAL_HOUR_1, TimelineView.INTERVAL_HOUR_6, NOW_MSEC, DURATION_MSEC);
+        animator.cancel();
+        assertFalse(animator.isRunning());
+        assertEquals(0, animator.step(NOW_MSEC + DURATION_MSEC));
+    }
+
+    @Test
+    public void flingIsMonotonic() {
+        for (long offset : new long[] {TimelineView.INTERVAL_MIN_5, -TimelineView.INTERVAL_DAY_7}) {
+            TimelineAnimator animator = new TimelineAnimator();
+            long durationMsec = 1_500;
+            animator.startFling(NOW_MSEC, offset, NOW_MSEC, durationMsec);
+            long prevMsec = NOW_MSEC;
+            long prevStep = 0;
+            for (long time = 0; time <= durationMsec; time++) {
+                animator.step(NOW_MSEC + time);
+                long moved = animator.getTimeMsec() - prevMsec;
+                assertTrue("Time " + time, moved == 0 || Long.signum(moved) == Long.signum(offset));
+                // Decelerating, up to rounding of neighbor values
+                long step = Math.abs(moved);
+                if (time > 1)
+                    assertTrue("Time " + time, step <= prevStep + 1);
+                prevStep = step;
+                prevMsec = animator.getTimeMsec();
+            }
+            assertEquals(NOW_MSEC + offset, animator.getTimeMsec());
+            assertFalse(animator.isRunning());
+        }
+    }
+
+}
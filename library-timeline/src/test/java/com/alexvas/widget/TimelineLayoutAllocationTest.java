@@ -0,0 +1,157 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Layout should not allocate once its rectangle pool and lists are big enough for the window.
+ */
+public class TimelineLayoutAllocationTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+    private static final ThreadMXBean THREAD_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int PASSES = 4;
+
+    private TimelineLayout _layout;
+
+    @Before
+    public void setUp() {
+        _layout = new TimelineLayout();
+        _layout.nowMsec = NOW_MSEC;
+        _layout.width = 1080;
+        _layout.height = 200;
+        _layout.binarySearchCulling = true;
+        _layout.coveragePyramid = true;
+        TimelineTrack[] layers = TimelineTrack.createLayerTracks(
+                new RecordLayer(createStore(20_000, 60_000, 1), false),
+                new RecordLayer(createStore(5_000, 240_000, 2), true),
+                new RecordLayer(createStore(50_000, 30_000, 3), true).withCoverage(1000));
+        TimelineTrack[] tracks = new TimelineTrack[layers.length + 1];
+        tracks[0] = new TimelineTrack(
+                3,
+                TimelineTrack.FLAG_LEFT_LINE | TimelineTrack.FLAG_RECORD_COLORS | TimelineTrack.FLAG_SEARCH,
+                TimelineLayout.SELECTED_NONE,
+                0.1f,
+                0.2f,
+                0,
+                -1,
+                new RecordLayer(createStore(2_000, 600_000, 4), false));
+        for (int i = 0; i < layers.length; i++) {
+            TimelineTrack track = layers[i];
+            if (track.id == TimelineView.LAYER_MAJOR2)
+                track = track.withBandInset(20);
+            else if (track.id == TimelineView.LAYER_BACKGROUND)
+                track = track.withBandInset(40);
+            tracks[i + 1] = track;
+        }
+        _layout.tracks = tracks;
+    }
+
+    @Test
+    public void panDoesNotAllocate() {
+        assertSteadyStateDoesNotAllocate(TimelineView.INTERVAL_HOUR_1);
+    }
+
+    @Test
+    public void panDoesNotAllocateWithLevelOfDetail() {
+        _layout.levelOfDetail = true;
+        assertSteadyStateDoesNotAllocate(TimelineView.INTERVAL_HOUR_12);
+    }
+
+    @Test
+    public void panDoesNotAllocateOnCoveragePyramid() {
+        assertSteadyStateDoesNotAllocate(TimelineView.INTERVAL_DAY_7);
+    }
+
+    @Test
+    public void panDoesNotAllocateOnHeatmap() {
+        _layout.heatmapMinIntervalMsec = TimelineView.INTERVAL_HOUR_12;
+        _layout.heatmapColors = new int[] {0xff000001, 0xff000002, 0xff000003, 0xff000004};
+        assertSteadyStateDoesNotAllocate(TimelineView.INTERVAL_DAY_1);
+    }
+
+    @Test
+    public void zoomDoesNotAllocate() {
+        long[] intervals = {
+                TimelineView.INTERVAL_MIN_15,
+                TimelineView.INTERVAL_HOUR_1,
+                TimelineView.INTERVAL_HOUR_12,
+                TimelineView.INTERVAL_DAY_7
+        };
+        _layout.selectedMsec = NOW_MSEC - TimelineView.INTERVAL_DAY_1;
+        long minAllocated = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass++) {
+            long allocated = getAllocatedBytes();
+            for (long intervalMsec : intervals) {
+                _layout.intervalMsec = intervalMsec;
+                _layout.layout();
+            }
+            allocated = getAllocatedBytes() - allocated;
+            // The first pass fills pools
+            if (pass > 0)
+                minAllocated = Math.min(minAllocated, allocated - getMeasurementOverhead());
+        }
+        assertEquals(0, minAllocated);
+    }
+
+    /**
+     * Pans back and forth several times. The first pass fills pools, further ones should not
+     * allocate. Only the least allocating pass is checked, as on-stack replacement of a hot
+     * layout loop may allocate a few bytes once, even though the layout itself does not.
+     */
+    private void assertSteadyStateDoesNotAllocate(long intervalMsec) {
+        _layout.intervalMsec = intervalMsec;
+        long startMsec = NOW_MSEC - 3 * TimelineView.INTERVAL_DAY_1;
+        long stepMsec = intervalMsec / 10;
+        long minAllocated = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass++) {
+            int visible = 0;
+            long allocated = getAllocatedBytes();
+            for (int i = 0; i < 40; i++) {
+                _layout.selectedMsec = startMsec + (i < 20 ? i : 40 - i) * stepMsec;
+                _layout.layout();
+                visible += _layout.visibleRecords[TimelineView.LAYER_MAJOR1] +
+                           _layout.visibleRecords[TimelineView.LAYER_BACKGROUND];
+            }
+            allocated = getAllocatedBytes() - allocated;
+            assertTrue(visible > 0);
+            if (pass > 0)
+                minAllocated = Math.min(minAllocated, allocated - getMeasurementOverhead());
+        }
+        assertEquals(0, minAllocated);
+    }
+
+    private static long getAllocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getMeasurementOverhead() {
+        long allocated = getAllocatedBytes();
+        return getAllocatedBytes() - allocated;
+    }
+
+    /**
+     * Returns store with records of random durations up to maxDurationMsec and random gaps,
+     * newest first, spanning about 10 days before NOW_MSEC.
+     */
+    private static TimeRecordStore createStore(int size, long maxDurationMsec, long seed) {
+        Random random = new Random(seed);
+        TimeRecordStore store = new TimeRecordStore(size);
+        long stepMsec = 10 * TimelineView.INTERVAL_DAY_1 / size;
+        long timestampMsec = NOW_MSEC;
+        for (int i = 0; i < size; i++) {
+            timestampMsec -= 1 + (long) (random.nextDouble() * 2 * stepMsec);
+            store.add(timestampMsec, (long) (random.nextDouble() * maxDurationMsec), random.nextInt(3) == 0 ? 0xff0000ff : -1);
+        }
+        return store;
+    }
+
+}
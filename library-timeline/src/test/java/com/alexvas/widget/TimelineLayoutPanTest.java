@@ -0,0 +1,182 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.alexvas.widget.TimelineLayout.DrawRect;
+import com.alexvas.widget.TimelineLayout.TrackRects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Layouts reusing visible ranges of the previous layout while panning should give the same
+ * output as layouts computed from scratch.
+ */
+public class TimelineLayoutPanTest {
+
+    private static final long NOW_MSEC = 1_700_000_000_000L;
+
+    @Test
+    public void panMatchesFullLayout() {
+        for (int config = 0; config < 8; config++) {
+            Random random = new Random(config);
+            boolean binarySearchCulling = (config & 1) != 0;
+            boolean levelOfDetail = (config & 2) != 0;
+            boolean unsortedBackground = (config & 4) != 0;
+            RecordLayer major1 = new RecordLayer(createStore(random, 5_000, 600_000, false), false);
+            RecordLayer major2 = new RecordLayer(createStore(random, 1_000, 3_600_000, false), false);
+            RecordLayer background = new RecordLayer(createStore(random, 5_000, 300_000, unsortedBackground), false);
+            TimelineTrack below = createTrack(3, 0.1f, 0.2f, -1, new RecordLayer(createStore(random, 500, 1_800_000, false), false));
+            TimelineTrack above = createTrack(4, 0.3f, 0.4f, 1, new RecordLayer(createStore(random, 500, 60_000, false), false));
+
+            TimelineLayout panned = new TimelineLayout();
+            long intervalMsec = TimelineView.INTERVAL_HOUR_1;
+            long selectedMsec = NOW_MSEC - TimelineView.INTERVAL_DAY_1;
+            for (int step = 0; step < 500; step++) {
+                // Mostly scroll and fling steps, sometimes zoom, jump or append records
+                int kind = random.nextInt(20);
+                if (kind == 0) {
+                    intervalMsec = TimelineView.INTERVAL_MIN_15 << random.nextInt(6);
+                } else if (kind == 1) {
+                    selectedMsec = NOW_MSEC - random.nextInt((int) (5 * TimelineView.INTERVAL_DAY_1));
+                } else if (kind == 2) {
+                    major1 = major1.appendNewer(createNewer(random, major1.store));
+                } else {
+                    selectedMsec += (long) ((random.nextDouble() * 2 - 1) * intervalMsec * (kind == 3 ? 1 : 0.05));
+                }
+                TimelineTrack[] tracks = createTracks(major1, major2, background, below, above);
+                TimelineLayout full = new TimelineLayout();
+                for (TimelineLayout layout : new TimelineLayout[] {panned, full}) {
+                    layout.nowMsec = NOW_MSEC;
+                    layout.width = 1080;
+                    layout.height = 200;
+                    layout.lineHalfWidth = 1;
+                    layout.binarySearchCulling = binarySearchCulling;
+                    layout.levelOfDetail = levelOfDetail;
+                    layout.tracks = tracks;
+                    layout.intervalMsec = intervalMsec;
+                    layout.selectedMsec = selectedMsec;
+                    layout.layout();
+                }
+                assertSameOutput("Config " + config + ", step " + step, full, panned);
+            }
+        }
+    }
+
+    private static void assertSameOutput(String message, TimelineLayout expected, TimelineLayout actual) {
+        for (int i = 0; i < expected.tracks.length; i++) {
+            String trackMessage = message + ", track " + expected.tracks[i].id;
+            TrackRects expectedRects = expected.trackRects[i];
+            TrackRects actualRects = actual.trackRects[i];
+            assertRect(trackMessage, expectedRects.selected, actualRects.selected);
+            assertRects(trackMessage, expectedRects.rects, actualRects.rects);
+            assertEquals(trackMessage, expectedRects.heatmap, actualRects.heatmap);
+            assertEquals(trackMessage, expectedRects.top, actualRects.top);
+            assertEquals(trackMessage, expectedRects.bottom, actualRects.bottom);
+        }
+        for (int i = 0; i < expected.visibleRecords.length; i++)
+            assertEquals(message, expected.visibleRecords[i], actual.visibleRecords[i]);
+        for (int i = 0; i < expected.needMoreData.length; i++)
+            assertEquals(message, expected.needMoreData[i], actual.needMoreData[i]);
+    }
+
+    /**
+     * Returns built-in layer tracks with bands inset as in the view, and added tracks below
+     * and above them.
+     */
+    private static TimelineTrack[] createTracks(
+            RecordLayer major1,
+            RecordLayer major2,
+            RecordLayer background,
+            TimelineTrack below,
+            TimelineTrack above) {
+        TimelineTrack[] layers = TimelineTrack.createLayerTracks(major1, major2, background);
+        TimelineTrack[] tracks = new TimelineTrack[layers.length + 2];
+        tracks[0] = below;
+        for (int i = 0; i < layers.length; i++) {
+            TimelineTrack track = layers[i];
+            if (track.id == TimelineView.LAYER_MAJOR2)
+                track = track.withBandInset(20);
+            else if (track.id == TimelineView.LAYER_BACKGROUND)
+                track = track.withBandInset(40);
+            tracks[i + 1] = track;
+        }
+        tracks[tracks.length - 1] = above;
+        return tracks;
+    }
+
+    private static TimelineTrack createTrack(int id, float bandTop, float bandBottom, int zOrder, RecordLayer layer) {
+        return new TimelineTrack(
+                id,
+                TimelineTrack.FLAG_LEFT_LINE | TimelineTrack.FLAG_RECORD_COLORS | TimelineTrack.FLAG_SEARCH,
+                TimelineLayout.SELECTED_NONE,
+                bandTop,
+                bandBottom,
+                0,
+                zOrder,
+                layer);
+    }
+
+    private static void assertRects(String message, ArrayList<DrawRect> expected, ArrayList<DrawRect> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertRect(message + ", rect " + i, expected.get(i), actual.get(i));
+    }
+
+    private static void assertRect(String message, DrawRect expected, DrawRect actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertTrue(message, actual != null);
+        assertEquals(message, expected.left, actual.left);
+        assertEquals(message, expected.top, actual.top);
+        assertEquals(message, expected.right, actual.right);
+        assertEquals(message, expected.bottom, actual.bottom);
+        assertEquals(message, expected.color, actual.color);
+    }
+
+    /**
+     * Returns records newer than the store ones, newest first.
+     */
+    private static TimeRecordStore createNewer(Random random, TimeRecordStore store) {
+        int count = 1 + random.nextInt(20);
+        TimeRecordStore records = new TimeRecordStore(count);
+        long timestampMsec = store.getTimestampMsec(0) + count * 600_000L;
+        for (int i = 0; i < count; i++) {
+            records.add(timestampMsec, random.nextInt(600_000), random.nextInt(3) == 0 ? 0xff0000ff : -1);
+            timestampMsec -= 1 + random.nextInt(600_000);
+        }
+        return records;
+    }
+
+    /**
+     * Returns store with records spanning about 5 days before NOW_MSEC, newest first unless
+     * unsorted is set, then neighbors are swapped here and there.
+     */
+    private static TimeRecordStore createStore(Random random, int size, long maxDurationMsec, boolean unsorted) {
+        long[] timestamps = new long[size];
+        long stepMsec = 5 * TimelineView.INTERVAL_DAY_1 / size;
+        long timestampMsec = NOW_MSEC;
+        for (int i = 0; i < size; i++) {
+            timestampMsec -= (long) (random.nextDouble() * 2 * stepMsec);
+            timestamps[i] = timestampMsec;
+        }
+        if (unsorted) {
+            for (int i = 1; i < size; i += 7) {
+                long tmp = timestamps[i];
+                timestamps[i] = timestamps[i - 1];
+                timestamps[i - 1] = tmp;
+            }
+        }
+        TimeRecordStore store = new TimeRecordStore(size);
+        for (int i = 0; i < size; i++)
+            store.add(timestamps[i], (long) (random.nextDouble() * maxDurationMsec), random.nextInt(3) == 0 ? 0xff0000ff : -1);
+        return store;
+    }
+
+}
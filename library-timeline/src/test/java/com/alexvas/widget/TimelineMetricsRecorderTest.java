@@ -0,0 +1,132 @@
+package com.alexvas.widget;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles should be taken over the frames recorded so far, then over the last
+ * WINDOW_FRAMES ones, and record counts should never go negative.
+ */
+public class TimelineMetricsRecorderTest {
+
+    private static final int WINDOW = TimelineMetrics.WINDOW_FRAMES;
+
+    @Test
+    public void percentilesOfPartialWindow() {
+        TimelineMetricsRecorder recorder = new TimelineMetricsRecorder();
+        TimelineMetrics metrics = recorder.snapshot();
+        assertEquals(0, metrics.frames);
+        assertEquals(0, metrics.windowFrames);
+        assertEquals(0, metrics.frameNanosP99);
+        assertEquals(0, metrics.updateNanosP50);
+
+        // 1..10 in shuffled order
+        TimelineLayout layout = createLayout();
+        for (int i = 0; i < 10; i++) {
+            long nanos = (i * 7) % 10 + 1;
+            recorder.onUpdate(100 * nanos);
+            recorder.onFrame(nanos, layout);
+        }
+        metrics = recorder.snapshot();
+        assertEquals(10, metrics.frames);
+        assertEquals(10, metrics.windowFrames);
+        assertEquals(5, metrics.frameNanosP50);
+        assertEquals(9, metrics.frameNanosP90);
+        assertEquals(10, metrics.frameNanosP99);
+        assertEquals(500, metrics.updateNanosP50);
+        assertEquals(900, metrics.updateNanosP90);
+        assertEquals(1000, metrics.updateNanosP99);
+    }
+
+    @Test
+    public void windowWrapsAfterLastFrames() {
+        TimelineMetricsRecorder recorder = new TimelineMetricsRecorder();
+        TimelineLayout layout = createLayout();
+        // Slow frames first, dropped from the window by the fast ones
+        for (int i = 0; i < WINDOW; i++)
+            recorder.onFrame(1_000_000 + i, layout);
+        for (int i = 1; i <= WINDOW + 5; i++) {
+            recorder.onUpdate(i);
+            recorder.onFrame(i, layout);
+        }
+        TimelineMetrics metrics = recorder.snapshot();
+        assertEquals(2 * WINDOW + 5, metrics.frames);
+        assertEquals(WINDOW, metrics.windowFrames);
+        // Window holds 6..WINDOW + 5
+        assertEquals(5 + WINDOW / 2, metrics.frameNanosP50);
+        assertEquals(5 + (int) Math.ceil(WINDOW * 0.9), metrics.frameNanosP90);
+        assertEquals(5 + (int) Math.ceil(WINDOW * 0.99), metrics.frameNanosP99);
+        assertEquals(5 + WINDOW / 2, metrics.updateNanosP50);
+    }
+
+    @Test
+    public void percentileIndexes() {
+        long[] sorted = new long[100];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = i + 1;
+        assertEquals(50, TimelineMetrics.getPercentile(sorted, 50));
+        assertEquals(90, TimelineMetrics.getPercentile(sorted, 90));
+        assertEquals(99, TimelineMetrics.getPercentile(sorted, 99));
+        assertEquals(1, TimelineMetrics.getPercentile(sorted, 0));
+        assertEquals(100, TimelineMetrics.getPercentile(sorted, 100));
+
+        // Nearest rank rounds up
+        long[] three = {10, 20, 30};
+        assertEquals(20, TimelineMetrics.getPercentile(three, 50));
+        assertEquals(30, TimelineMetrics.getPercentile(three, 90));
+        assertEquals(30, TimelineMetrics.getPercentile(three, 99));
+        assertEquals(7, TimelineMetrics.getPercentile(new long[] {7}, 50));
+        assertEquals(0, TimelineMetrics.getPercentile(new long[0], 99));
+    }
+
+    @Test
+    public void culledRecordsAreNeverNegative() {
+        TimelineMetricsRecorder recorder = new TimelineMetricsRecorder();
+        TimelineLayout layout = createLayout();
+        layout.visibleRecords[TimelineView.LAYER_MAJOR1] = 4;
+        // Pyramid buckets may outnumber records
+        layout.visibleRecords[TimelineView.LAYER_BACKGROUND] = 50;
+        layout.visibleRecords[TimelineMetrics.SECTION_TRACKS] = 3;
+        recorder.onFrame(1, layout);
+        TimelineMetrics metrics = recorder.snapshot();
+        assertEquals(6, metrics.culledRecords[TimelineView.LAYER_MAJOR1]);
+        assertEquals(0, metrics.culledRecords[TimelineView.LAYER_MAJOR2]);
+        assertEquals(0, metrics.culledRecords[TimelineView.LAYER_BACKGROUND]);
+        assertEquals(50, metrics.visibleRecords[TimelineView.LAYER_BACKGROUND]);
+        assertEquals(2, metrics.culledRecords[TimelineMetrics.SECTION_TRACKS]);
+    }
+
+    /**
+     * Returns layout with 10 major1 records, 20 background records and 5 track records.
+     */
+    private static TimelineLayout createLayout() {
+        TimelineLayout layout = new TimelineLayout();
+        TimelineTrack[] layers = TimelineTrack.createLayerTracks(
+                new RecordLayer(createStore(10), false),
+                RecordLayer.EMPTY,
+                new RecordLayer(createStore(20), false));
+        TimelineTrack[] tracks = Arrays.copyOf(layers, layers.length + 1);
+        tracks[layers.length] = new TimelineTrack(
+                3,
+                TimelineTrack.FLAG_LEFT_LINE | TimelineTrack.FLAG_RECORD_COLORS | TimelineTrack.FLAG_SEARCH,
+                TimelineLayout.SELECTED_NONE,
+                0.1f,
+                0.2f,
+                0,
+                1,
+                new RecordLayer(createStore(5), false));
+        layout.tracks = tracks;
+        return layout;
+    }
+
+    private static TimeRecordStore createStore(int size) {
+        TimeRecordStore store = new TimeRecordStore(size);
+        for (int i = 0; i < size; i++)
+            store.add(1_700_000_000_000L - i * 60_000L, 1000);
+        return store;
+    }
+
+}